@@ -0,0 +1,77 @@
+package net.logstash.log4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link JSONEventLayoutV1#formatBatch(List)} for a batch of
+ * {@value #BATCH_SIZE} events by pool size. Run with
+ * {@code mvn -Pjmh test-compile exec:exec -Djmh.args=JSONEventLayoutV1BatchBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JSONEventLayoutV1BatchBenchmark {
+    static final int BATCH_SIZE = 4096;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private JSONEventLayoutV1 layout;
+    private List<LoggingEvent> events;
+
+    @Setup
+    public void setup() {
+        layout = new JSONEventLayoutV1();
+        layout.setGarbageFree(true);
+        layout.setBatchParallelism(parallelism);
+
+        Logger logger = Logger.getLogger(JSONEventLayoutV1BatchBenchmark.class);
+        events = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            MDC.put("request_id", "req-" + (i % 97));
+            Throwable throwable = i % 100 == 0 ? new IllegalStateException("failure " + i) : null;
+            String message = i % 10 == 0 ? "slow request took " + i + "ms: " + "GET /api/orders?page=" + i : "request " + i + " completed";
+            LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, i % 10 == 0 ? Level.WARN : Level.INFO, message, throwable);
+            event.getMDCCopy();
+            event.getNDC();
+            event.getThreadName();
+            event.getLocationInformation();
+            event.getThrowableStrRep();
+            events.add(event);
+        }
+        MDC.remove("request_id");
+    }
+
+    @TearDown
+    public void tearDown() {
+        layout.setBatchParallelism(0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public String formatBatch() {
+        return layout.formatBatch(events);
+    }
+}
@@ -0,0 +1,81 @@
+package net.logstash.log4j;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Run with {@code mvn -Pjmh test-compile exec:exec}. The profile passes {@code -prof gc}
+ * by default, so the {@code gc.alloc.rate.norm} column shows bytes allocated per event.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class JSONEventLayoutV1Benchmark {
+
+    /**
+     * Events are formatted in turn from a ring this large, so that each one is new to
+     * the layout as it would be in production.
+     */
+    private static final int DISTINCT_EVENTS = 4096;
+
+    private JSONEventLayoutV1 layout;
+    private JSONEventLayoutV1 garbageFreeLayout;
+    private LoggingEvent[] events;
+    private int next;
+    private StringBuilder destination;
+
+    @Setup
+    public void setup() {
+        layout = new JSONEventLayoutV1();
+        garbageFreeLayout = new JSONEventLayoutV1();
+        garbageFreeLayout.setGarbageFree(true);
+        destination = new StringBuilder(1024);
+
+        MDC.put("request_id", "6f1c1a4e-3c2b-4d4e-9a55-0d1c8b6f2e11");
+        Logger logger = Logger.getLogger(JSONEventLayoutV1Benchmark.class);
+        events = new LoggingEvent[DISTINCT_EVENTS];
+        for (int i = 0; i < events.length; i++) {
+            LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, Level.INFO, "GET /api/orders/" + i + " completed in 12ms", null);
+            event.getLocationInformation();
+            event.getThreadName();
+            event.getNDC();
+            event.getMDCCopy();
+            events[i] = event;
+        }
+        MDC.remove("request_id");
+    }
+
+    private LoggingEvent nextEvent() {
+        LoggingEvent event = events[next];
+        next = (next + 1) % DISTINCT_EVENTS;
+        return event;
+    }
+
+    @Benchmark
+    public String format() {
+        return layout.format(nextEvent());
+    }
+
+    @Benchmark
+    public StringBuilder formatToGarbageFree() {
+        destination.setLength(0);
+        garbageFreeLayout.formatTo(nextEvent(), destination);
+        return destination;
+    }
+}
@@ -0,0 +1,87 @@
+package net.logstash.log4j;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.PropertyConfigurator;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to the first logged line in a fresh JVM: configuring a number of appenders
+ * with a {@link JSONEventLayoutV1} each through {@link PropertyConfigurator} and
+ * logging one event through all of them. Every fork measures a single cold run; log4j
+ * itself is initialized beforehand, so only the layouts are measured. Run with
+ * {@code mvn -Pjmh test-compile exec:exec -Djmh.args=JSONEventLayoutV1StartupBenchmark}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+@State(Scope.Benchmark)
+public class JSONEventLayoutV1StartupBenchmark {
+
+    @Param({"1", "100"})
+    public int layouts;
+
+    private Properties configuration;
+
+    @Setup
+    public void setup() {
+        LogManager.getRootLogger();
+        configuration = new Properties();
+        StringBuilder rootLogger = new StringBuilder("INFO");
+        for (int i = 0; i < layouts; i++) {
+            String appender = "log4j.appender.A" + i;
+            configuration.setProperty(appender, CountingAppender.class.getName());
+            configuration.setProperty(appender + ".layout", JSONEventLayoutV1.class.getName());
+            configuration.setProperty(appender + ".layout.UserFields", "service:checkout,appender:A" + i);
+            rootLogger.append(",A").append(i);
+        }
+        configuration.setProperty("log4j.rootLogger", rootLogger.toString());
+    }
+
+    @Benchmark
+    public long firstLoggedLine() {
+        PropertyConfigurator.configure(configuration);
+        MDC.put("request_id", "6f1c1a4e-3c2b-4d4e-9a55-0d1c8b6f2e11");
+        Logger.getLogger(JSONEventLayoutV1StartupBenchmark.class).info("first line");
+        MDC.remove("request_id");
+        return CountingAppender.characters;
+    }
+
+    /**
+     * Formats every event and counts the characters instead of writing them anywhere.
+     */
+    public static class CountingAppender extends AppenderSkeleton {
+        static long characters;
+
+        @Override
+        protected void append(LoggingEvent event) {
+            characters += layout.format(event).length();
+        }
+
+        @Override
+        public boolean requiresLayout() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -5,22 +5,57 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import net.logstash.log4j.data.HostData;
+import net.logstash.log4j.encoder.FieldOrder;
+import net.logstash.log4j.encoder.JsonWriter;
 import org.apache.log4j.Layout;
-import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.helpers.LogLog;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.spi.ThrowableInformation;
 
-import java.util.HashMap;
 import java.util.Map;
-import org.json.JSONObject;
 
 public class JSONEventLayoutV0 extends Layout {
 
     private boolean locationInfo;
 
-    private final String hostname = new HostData().getHostName();
+    /**
+     * The top-level fields of an event in their default order.
+     */
+    private static final String[] DEFAULT_EVENT_ORDER = {"@source_host", "@message", "@timestamp", "@fields"};
+
+    private static final int SOURCE_HOST = 0;
+    private static final int MESSAGE = 1;
+    private static final int TIMESTAMP = 2;
+    private static final int FIELDS = 3;
+
+    /**
+     * The fields nested in {@code @fields} in their default order.
+     */
+    private static final String[] DEFAULT_FIELDS_ORDER = {
+            "exception", "file", "line_number", "class", "method", "loggerName", "mdc", "ndc", "level", "threadName"};
+
+    private static final int EXCEPTION = 0;
+    private static final int FILE = 1;
+    private static final int LINE_NUMBER = 2;
+    private static final int CLASS = 3;
+    private static final int METHOD = 4;
+    private static final int LOGGER_NAME = 5;
+    private static final int MDC = 6;
+    private static final int NDC = 7;
+    private static final int LEVEL = 8;
+    private static final int THREAD_NAME = 9;
+
+    private String fieldOrderNames;
+
+    private static final int[] DEFAULT_EVENT_INDEXES = FieldOrder.resolve(null, DEFAULT_EVENT_ORDER);
+
+    private static final int[] DEFAULT_FIELDS_INDEXES = FieldOrder.resolve(null, DEFAULT_FIELDS_ORDER);
+
+    private int[] eventOrder = DEFAULT_EVENT_INDEXES;
 
-    private HashMap<String, Object> fieldData;
+    private int[] fieldsOrder = DEFAULT_FIELDS_INDEXES;
+
+    private boolean sortMdcKeys = true;
 
     public static final DateTimeFormatter ISO_DATETIME_TIME_ZONE_FORMAT_WITH_MILLIS = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
 
@@ -46,53 +81,99 @@ public class JSONEventLayoutV0 extends Layout {
      */
     public JSONEventLayoutV0(boolean locationInfo) {
         this.locationInfo = locationInfo;
+        HostData.resolveInBackground();
     }
 
     public String format(LoggingEvent loggingEvent) {
         String threadName = loggingEvent.getThreadName();
         long timestamp = loggingEvent.getTimeStamp();
-        fieldData = new HashMap<>();
-        HashMap<String, Object> exceptionInformation = new HashMap<>();
-        Map mdc = loggingEvent.getProperties();
+        Map<?, ?> mdc = loggingEvent.getProperties();
         String ndc = loggingEvent.getNDC();
 
-        JSONObject logstashEvent = new JSONObject();
-
-        logstashEvent.put("@source_host", hostname);
-        logstashEvent.put("@message", loggingEvent.getRenderedMessage());
-        logstashEvent.put("@timestamp", dateFormat(timestamp));
-
-        if (loggingEvent.getThrowableInformation() != null) {
-            final ThrowableInformation throwableInformation = loggingEvent.getThrowableInformation();
-            if (throwableInformation.getThrowable().getClass().getCanonicalName() != null) {
-                exceptionInformation.put("exception_class", throwableInformation.getThrowable().getClass().getCanonicalName());
-            }
-            if (throwableInformation.getThrowable().getMessage() != null) {
-                exceptionInformation.put("exception_message", throwableInformation.getThrowable().getMessage());
-            }
-            if (throwableInformation.getThrowableStrRep() != null) {
-                String stackTrace = String.join("\n", throwableInformation.getThrowableStrRep());
-                exceptionInformation.put("stacktrace", stackTrace);
+        JsonWriter writer = new JsonWriter().sortMembers(sortMdcKeys);
+        writer.beginObject();
+        for (int field : eventOrder) {
+            switch (field) {
+                case SOURCE_HOST:
+                    writer.name("@source_host").value(HostData.localHostName());
+                    break;
+                case MESSAGE:
+                    writer.name("@message").value(loggingEvent.getRenderedMessage());
+                    break;
+                case TIMESTAMP:
+                    writer.name("@timestamp").timestampValue(timestamp);
+                    break;
+                case FIELDS:
+                    writer.name("@fields").beginObject();
+                    addFields(writer, loggingEvent, threadName, mdc, ndc);
+                    writer.endObject();
+                    break;
+                default:
+                    break;
             }
-            addFieldData("exception", exceptionInformation);
         }
+        writer.endObject();
+        return writer.getBuffer().append('\n').toString();
+    }
 
-        if (locationInfo) {
-            LocationInfo info = loggingEvent.getLocationInformation();
-            addFieldData("file", info.getFileName());
-            addFieldData("line_number", info.getLineNumber());
-            addFieldData("class", info.getClassName());
-            addFieldData("method", info.getMethodName());
+    private void addFields(JsonWriter writer, LoggingEvent loggingEvent, String threadName, Map<?, ?> mdc, String ndc) {
+        for (int field : fieldsOrder) {
+            switch (field) {
+                case EXCEPTION:
+                    if (loggingEvent.getThrowableInformation() != null) {
+                        final ThrowableInformation throwableInformation = loggingEvent.getThrowableInformation();
+                        writer.name("exception").beginObject();
+                        if (throwableInformation.getThrowable().getClass().getCanonicalName() != null) {
+                            writer.name("exception_class").value(throwableInformation.getThrowable().getClass().getCanonicalName());
+                        }
+                        if (throwableInformation.getThrowable().getMessage() != null) {
+                            writer.name("exception_message").value(throwableInformation.getThrowable().getMessage());
+                        }
+                        if (throwableInformation.getThrowableStrRep() != null) {
+                            writer.name("stacktrace").joinedValue(throwableInformation.getThrowableStrRep());
+                        }
+                        writer.endObject();
+                    }
+                    break;
+                case FILE:
+                    if (locationInfo) {
+                        addFieldData(writer, "file", loggingEvent.getLocationInformation().getFileName());
+                    }
+                    break;
+                case LINE_NUMBER:
+                    if (locationInfo) {
+                        addFieldData(writer, "line_number", loggingEvent.getLocationInformation().getLineNumber());
+                    }
+                    break;
+                case CLASS:
+                    if (locationInfo) {
+                        addFieldData(writer, "class", loggingEvent.getLocationInformation().getClassName());
+                    }
+                    break;
+                case METHOD:
+                    if (locationInfo) {
+                        addFieldData(writer, "method", loggingEvent.getLocationInformation().getMethodName());
+                    }
+                    break;
+                case LOGGER_NAME:
+                    addFieldData(writer, "loggerName", loggingEvent.getLoggerName());
+                    break;
+                case MDC:
+                    writer.name("mdc").beginObject().members(mdc).endObject();
+                    break;
+                case NDC:
+                    addFieldData(writer, "ndc", ndc);
+                    break;
+                case LEVEL:
+                    addFieldData(writer, "level", loggingEvent.getLevel().toString());
+                    break;
+                case THREAD_NAME:
+                    addFieldData(writer, "threadName", threadName);
+                    break;
+                default:
+                    break;
+            }
         }
-
-        addFieldData("loggerName", loggingEvent.getLoggerName());
-        addFieldData("mdc", mdc);
-        addFieldData("ndc", ndc);
-        addFieldData("level", loggingEvent.getLevel().toString());
-        addFieldData("threadName", threadName);
-
-        logstashEvent.put("@fields", fieldData);
-        return logstashEvent.toString() + "\n";
     }
 
     public boolean ignoresThrowable() {
@@ -117,12 +198,61 @@ public class JSONEventLayoutV0 extends Layout {
         this.locationInfo = locationInfo;
     }
 
+    /**
+     * Query the configured field order.
+     *
+     * @return the comma-separated field names, or null for the default order.
+     */
+    public String getFieldOrder() {
+        return fieldOrderNames;
+    }
+
+    /**
+     * Set the order in which fields are written, e.g. {@code @timestamp,@message,level}.
+     * Top-level fields ({@code @source_host}, {@code @message}, {@code @timestamp} and
+     * {@code @fields}) and the fields nested in {@code @fields} ({@code exception},
+     * {@code file}, {@code line_number}, {@code class}, {@code method}, {@code loggerName},
+     * {@code mdc}, {@code ndc}, {@code level} and {@code threadName}) are each ordered
+     * among themselves. Fields that are not listed follow in that default order.
+     *
+     * @param fieldOrder the comma-separated field names.
+     */
+    public void setFieldOrder(String fieldOrder) {
+        try {
+            int[] eventOrder = FieldOrder.resolve(fieldOrder, DEFAULT_EVENT_ORDER, DEFAULT_FIELDS_ORDER);
+            int[] fieldsOrder = FieldOrder.resolve(fieldOrder, DEFAULT_FIELDS_ORDER, DEFAULT_EVENT_ORDER);
+            this.eventOrder = eventOrder;
+            this.fieldsOrder = fieldsOrder;
+            this.fieldOrderNames = fieldOrder;
+        } catch (IllegalArgumentException e) {
+            LogLog.error("[" + this.getClass().getSimpleName() + "] Ignoring FieldOrder " + fieldOrder, e);
+        }
+    }
+
+    /**
+     * Query whether MDC entries are written sorted by key.
+     *
+     * @return true if MDC keys are sorted, false if they are written in the MDC's order.
+     */
+    public boolean getSortMdcKeys() {
+        return sortMdcKeys;
+    }
+
+    /**
+     * Set whether MDC entries are written sorted by key, which is the default.
+     *
+     * @param sortMdcKeys true to sort MDC keys, false to write them in the MDC's order.
+     */
+    public void setSortMdcKeys(boolean sortMdcKeys) {
+        this.sortMdcKeys = sortMdcKeys;
+    }
+
     public void activateOptions() {
     }
 
-    private void addFieldData(String keyname, Object keyval) {
+    private static void addFieldData(JsonWriter writer, String keyname, String keyval) {
         if (null != keyval) {
-            fieldData.put(keyname, keyval);
+            writer.name(keyname).value(keyval);
         }
     }
 }
@@ -1,19 +1,40 @@
 package net.logstash.log4j;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import net.logstash.log4j.data.HostData;
+import net.logstash.log4j.data.RecordedThrowable;
+import net.logstash.log4j.data.TraceContext;
+import net.logstash.log4j.encoder.BufferManager;
+import net.logstash.log4j.encoder.EncodingBuffers;
+import net.logstash.log4j.encoder.FieldOrder;
+import net.logstash.log4j.encoder.JsonWriter;
+import net.logstash.log4j.encoder.KeyDictionary;
+import net.logstash.log4j.encoder.ProfileSelector;
+import net.logstash.log4j.encoder.ProfileSelector.Profile;
+import net.logstash.log4j.encoder.Redactor;
+import net.logstash.log4j.encoder.TruncationPolicy;
+import net.logstash.log4j.encoder.TruncationPolicy.Field;
 import org.apache.log4j.Layout;
 import org.apache.log4j.helpers.LogLog;
 import org.apache.log4j.spi.LocationInfo;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.spi.ThrowableInformation;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import org.json.JSONObject;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.PatternSyntaxException;
 
 public class JSONEventLayoutV1 extends Layout {
 
@@ -21,11 +42,115 @@ public class JSONEventLayoutV1 extends Layout {
 
     private String customUserFields;
 
-    private final String hostname = new HostData().getHostName();
+    private boolean garbageFree;
 
-    private static final Integer version = 1;
+    /**
+     * The host name set by {@link #setSourceHost(String)}, or null for the local host.
+     */
+    private String hostname;
+
+    private static final int version = 1;
+
+    /**
+     * The fields of an event in their default order. A field is identified by its
+     * index in this array.
+     */
+    private static final String[] DEFAULT_FIELD_ORDER = {
+            "@version", "@timestamp", "user_fields", "source_host", "message", "exception", "file", "line_number",
+            "class", "method", "logger_name", "mdc", "ndc", "level", "thread_name", "trace_id", "span_id"};
+
+    private static final int VERSION = 0;
+    private static final int TIMESTAMP = 1;
+    private static final int USER_FIELDS = 2;
+    private static final int SOURCE_HOST = 3;
+    private static final int MESSAGE = 4;
+    private static final int EXCEPTION = 5;
+    private static final int FILE = 6;
+    private static final int LINE_NUMBER = 7;
+    private static final int CLASS = 8;
+    private static final int METHOD = 9;
+    private static final int LOGGER_NAME = 10;
+    private static final int MDC = 11;
+    private static final int NDC = 12;
+    private static final int LEVEL = 13;
+    private static final int THREAD_NAME = 14;
+    private static final int TRACE_ID = 15;
+    private static final int SPAN_ID = 16;
+
+    /**
+     * The fields that are never truncated but are dropped first when they do not fit
+     * within {@link #setMaxEventBytes(int) MaxEventBytes} on their own.
+     */
+    private static final int DROPPABLE_FIELDS = (1 << USER_FIELDS) | (1 << THREAD_NAME);
+
+    /**
+     * The bytes {@code "logger_name":} and its separating comma take in a minimal event.
+     */
+    private static final int LOGGER_NAME_OVERHEAD = "\"logger_name\":,".length();
+
+    private String fieldOrderNames;
+
+    private static final int[] DEFAULT_FIELD_INDEXES = FieldOrder.resolve(null, DEFAULT_FIELD_ORDER);
+
+    private int[] fieldOrder = DEFAULT_FIELD_INDEXES;
+
+    private boolean sortMdcKeys = true;
+
+    /**
+     * The maximum number of logger names and MDC keys a dictionary holds.
+     */
+    private static final int DICTIONARY_CAPACITY = 4096;
+
+    private int dictionaryInterval;
+
+    private volatile KeyDictionary dictionary;
+
+    private String profiles;
+
+    private String profileRules;
 
-    private JSONObject logstashEvent;
+    private volatile ProfileSelector profileSelector;
+
+    private int maxEventBytes;
+
+    private String truncationOrder = TruncationPolicy.DEFAULT_ORDER;
+
+    private TruncationPolicy truncationPolicy = TruncationPolicy.DEFAULT;
+
+    /**
+     * The smallest size limit {@link #setMaxEventBytes(int)} accepts, enough for the
+     * fields every event keeps and the truncation marker.
+     */
+    public static final int MIN_EVENT_BYTES = 128;
+
+    /**
+     * Batches are never split into slices smaller than this.
+     */
+    private static final int MIN_BATCH_SLICE = 64;
+
+    private static final int MAX_SLICE_CAPACITY = 1 << 22;
+
+    private static final int STACK_TRACE_ESTIMATE = 4096;
+
+    private volatile int batchParallelism;
+
+    private volatile ForkJoinPool batchPool;
+
+    private String redactPatterns;
+
+    private String redactRegex;
+
+    private String redactLiterals;
+
+    private String redactMdcKeys;
+
+    private String redactMask = Redactor.DEFAULT_MASK;
+
+    private volatile Redactor redactor;
+
+    private final BufferManager buffers = new BufferManager();
+
+    private volatile UserFields userFields = UserFields.EMPTY;
 
     public static final DateTimeFormatter ISO_DATETIME_TIME_ZONE_FORMAT_WITH_MILLIS = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
     public static final String ADDITIONAL_DATA_PROPERTY = "net.logstash.log4j.JSONEventLayoutV1.UserFields";
@@ -52,84 +177,575 @@ public class JSONEventLayoutV1 extends Layout {
      */
     public JSONEventLayoutV1(boolean locationInfo) {
         this.locationInfo = locationInfo;
+        HostData.resolveInBackground();
     }
 
     public String format(LoggingEvent loggingEvent) {
-        String threadName = loggingEvent.getThreadName();
-        long timestamp = loggingEvent.getTimeStamp();
-        HashMap<String, Object> exceptionInformation = new HashMap<>();
-        Map mdc = loggingEvent.getProperties();
-        String ndc = loggingEvent.getNDC();
+        EncodingBuffers encodingBuffers = encodingBuffers(loggingEvent);
+        try {
+            encode(loggingEvent, encodingBuffers, TraceContext.current());
+            return encodingBuffers.writer().getBuffer().toString();
+        } finally {
+            buffers.release(encodingBuffers);
+        }
+    }
 
-        logstashEvent = new JSONObject();
-        String whoami = this.getClass().getSimpleName();
+    /**
+     * Appends the formatted event, including the trailing newline, to {@code output}.
+     *
+     * Unlike {@link #format(LoggingEvent)} no String is created for the event, so with
+     * {@link #setGarbageFree(boolean) garbage-free mode} enabled and a reused destination
+     * the layout allocates nothing in steady state for events without an exception,
+     * apart from the read-only view of the event's MDC that log4j creates each time it
+     * is asked for, once per formatted event.
+     *
+     * @param loggingEvent the event to format.
+     * @param output the buffer the event is appended to.
+     */
+    public void formatTo(LoggingEvent loggingEvent, StringBuilder output) {
+        EncodingBuffers encodingBuffers = encodingBuffers(loggingEvent);
+        try {
+            encode(loggingEvent, encodingBuffers, TraceContext.current());
+            output.append(encodingBuffers.writer().getBuffer());
+        } finally {
+            buffers.release(encodingBuffers);
+        }
+    }
 
-        /**
-         * All v1 of the event format requires is
-         * "@timestamp" and "@version"
-         * Every other field is arbitrary
-         */
-        logstashEvent.put("@version", version);
-        logstashEvent.put("@timestamp", dateFormat(timestamp));
+    /**
+     * Writes the formatted event, including the trailing newline, to {@code output}
+     * through a per-thread character chunk instead of an intermediate String.
+     *
+     * @param loggingEvent the event to format.
+     * @param output the writer the event is written to.
+     * @throws IOException if the writer fails.
+     */
+    public void formatTo(LoggingEvent loggingEvent, Writer output) throws IOException {
+        EncodingBuffers encodingBuffers = encodingBuffers(loggingEvent);
+        try {
+            encode(loggingEvent, encodingBuffers, TraceContext.current());
+            write(encodingBuffers.writer().getBuffer(), encodingBuffers.chunk(), output);
+        } finally {
+            buffers.release(encodingBuffers);
+        }
+    }
 
-        /**
-         * Extract and add fields from log4j config, if defined
-         */
-        if (getUserFields() != null) {
-            String userFlds = getUserFields();
-            LogLog.debug("["+whoami+"] Got user data from log4j property: "+ userFlds);
-            addUserFields(userFlds);
+    /**
+     * Formats a batch of events, such as the contents of an async appender's queue,
+     * into a single String holding one line per event in the order of the list.
+     *
+     * Large batches are split into contiguous slices that are encoded in parallel on
+     * the pool configured by {@link #setBatchParallelism(int)}, each into its own
+     * buffer, and then stitched back together in order. Before the slices are handed
+     * to the pool, the thread-dependent data of every event (thread name, NDC, MDC and,
+     * if it is written, location) is captured on the calling thread, unless that has
+     * already happened, as it has for events queued by {@code AsyncAppender}.
+     * Events formatted in a batch have no {@code trace_id} or {@code span_id}: a
+     * {@link TraceContext} belongs to a thread, not to an event, and the thread passing
+     * the batch is rarely the one that logged its events.
+     * With {@link #setDictionaryInterval(int) dictionary encoding} the batch is encoded
+     * on the calling thread, as each header has to precede the events that use it.
+     *
+     * @param loggingEvents the events to format.
+     * @return the formatted events.
+     */
+    public String formatBatch(List<LoggingEvent> loggingEvents) {
+        StringBuilder[] slices = encodeBatch(loggingEvents);
+        int length = 0;
+        for (StringBuilder slice : slices) {
+            length += slice.length();
         }
+        StringBuilder output = new StringBuilder(length);
+        for (StringBuilder slice : slices) {
+            output.append(slice);
+        }
+        return output.toString();
+    }
 
-        /**
-         * Extract fields from system properties, if defined
-         * Note that CLI props will override conflicts with log4j config
-         */
-        if (System.getProperty(ADDITIONAL_DATA_PROPERTY) != null) {
-            if (getUserFields() != null) {
-                LogLog.warn("["+whoami+"] Loading UserFields from command-line. This will override any UserFields set in the log4j configuration file");
+    /**
+     * Like {@link #formatBatch(List)}, but writes the formatted batch to {@code output}
+     * in one pass once every slice has been encoded.
+     *
+     * @param loggingEvents the events to format.
+     * @param output the writer the events are written to.
+     * @throws IOException if the writer fails.
+     */
+    public void formatBatch(List<LoggingEvent> loggingEvents, Writer output) throws IOException {
+        StringBuilder[] slices = encodeBatch(loggingEvents);
+        char[] chunk = new char[4096];
+        for (StringBuilder slice : slices) {
+            write(slice, chunk, output);
+        }
+    }
+
+    private StringBuilder[] encodeBatch(List<LoggingEvent> loggingEvents) {
+        int size = loggingEvents.size();
+        if (size <= MIN_BATCH_SLICE || dictionary != null) {
+            return new StringBuilder[]{encodeSlice(loggingEvents, 0, size)};
+        }
+
+        boolean location = locationInfo || profileSelector != null;
+        for (int i = 0; i < size; i++) {
+            capture(loggingEvents.get(i), location);
+        }
+
+        ForkJoinPool pool = batchPool();
+        int slicesWanted = pool.getParallelism() * 4;
+        int sliceSize = Math.max(MIN_BATCH_SLICE, (size + slicesWanted - 1) / slicesWanted);
+        List<ForkJoinTask<StringBuilder>> tasks = new ArrayList<>();
+        for (int from = 0; from < size; from += sliceSize) {
+            final int start = from;
+            final int end = Math.min(size, from + sliceSize);
+            Callable<StringBuilder> slice = () -> encodeSlice(loggingEvents, start, end);
+            try {
+                tasks.add(pool.submit(slice));
+            } catch (RejectedExecutionException e) {
+                // the pool was retired by setBatchParallelism meanwhile: encode here instead
+                ForkJoinTask<StringBuilder> task = ForkJoinTask.adapt(slice);
+                task.invoke();
+                tasks.add(task);
             }
-            String userFieldsProperty = System.getProperty(ADDITIONAL_DATA_PROPERTY);
-            LogLog.debug("["+whoami+"] Got user data from system property: " + userFieldsProperty);
-            addUserFields(userFieldsProperty);
+        }
+
+        StringBuilder[] slices = new StringBuilder[tasks.size()];
+        for (int i = 0; i < slices.length; i++) {
+            slices[i] = tasks.get(i).join();
+        }
+        return slices;
+    }
+
+    /**
+     * Makes {@code loggingEvent} read its thread-dependent data on the current thread,
+     * where {@link LoggingEvent} would otherwise capture it lazily on whichever thread
+     * first asks for it.
+     */
+    private static void capture(LoggingEvent loggingEvent, boolean location) {
+        loggingEvent.getThreadName();
+        loggingEvent.getNDC();
+        loggingEvent.getMDCCopy();
+        if (location) {
+            loggingEvent.getLocationInformation();
+        }
+    }
+
+    private StringBuilder encodeSlice(List<LoggingEvent> loggingEvents, int start, int end) {
+        StringBuilder slice = null;
+        for (int i = start; i < end; i++) {
+            LoggingEvent loggingEvent = loggingEvents.get(i);
+            EncodingBuffers encodingBuffers = encodingBuffers(loggingEvent);
+            try {
+                encode(loggingEvent, encodingBuffers, null);
+                StringBuilder encoded = encodingBuffers.writer().getBuffer();
+                if (slice == null) {
+                    slice = new StringBuilder((int) Math.min(MAX_SLICE_CAPACITY, (long) encoded.length() * (end - start)));
+                }
+                slice.append(encoded);
+            } finally {
+                buffers.release(encodingBuffers);
+            }
+        }
+        return slice != null ? slice : new StringBuilder();
+    }
+
+    private ForkJoinPool batchPool() {
+        if (batchParallelism <= 0) {
+            return ForkJoinPool.commonPool();
+        }
+        ForkJoinPool pool = batchPool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = batchPool;
+                if (pool == null) {
+                    // read again under the lock: setBatchParallelism may have set it to 0
+                    int parallelism = batchParallelism;
+                    if (parallelism <= 0) {
+                        return ForkJoinPool.commonPool();
+                    }
+                    pool = new ForkJoinPool(parallelism);
+                    batchPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    private static void write(StringBuilder buffer, char[] chunk, Writer output) throws IOException {
+        for (int start = 0; start < buffer.length(); start += chunk.length) {
+            int end = Math.min(buffer.length(), start + chunk.length);
+            buffer.getChars(start, end, chunk, 0);
+            output.write(chunk, 0, end - start);
+        }
+    }
+
+    private EncodingBuffers encodingBuffers(LoggingEvent loggingEvent) {
+        int estimate = estimateLength(loggingEvent);
+        return garbageFree ? buffers.acquire(estimate) : BufferManager.unmanaged(estimate);
+    }
+
+    /**
+     * @return a rough size of the encoded event, from its message. The stack trace is
+     *         not looked at, as log4j copies it on every access; an event with an
+     *         exception is assumed to take {@value #STACK_TRACE_ESTIMATE} more chars.
+     */
+    private static int estimateLength(LoggingEvent loggingEvent) {
+        String message = loggingEvent.getRenderedMessage();
+        long length = BufferManager.MIN_CAPACITY + (message != null ? message.length() : 0);
+        if (loggingEvent.getThrowableInformation() != null) {
+            length += STACK_TRACE_ESTIMATE;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, length);
+    }
+
+    private void encode(LoggingEvent loggingEvent, EncodingBuffers encodingBuffers, TraceContext trace) {
+        ProfileSelector selector = this.profileSelector;
+        Profile profile = selector != null ? selector.select(loggingEvent.getLoggerName(), loggingEvent.getLevel()) : null;
+        encodeBounded(loggingEvent, encodingBuffers, profile, trace);
+        KeyDictionary dictionary = this.dictionary;
+        if (dictionary != null) {
+            JsonWriter header = encodingBuffers.header().reset();
+            if (dictionary.writeHeader(header)) {
+                encodingBuffers.writer().getBuffer().insert(0, header.getBuffer());
+            }
+        }
+    }
+
+    private void encodeBounded(LoggingEvent loggingEvent, EncodingBuffers encodingBuffers, Profile profile, TraceContext trace) {
+        JsonWriter writer = encodingBuffers.writer();
+        // a new read-only view of the MDC snapshot on every call, so it is taken once
+        Map<?, ?> mdc = loggingEvent.getProperties();
+        if (maxEventBytes <= 0) {
+            encode(loggingEvent, writer, profile, trace, mdc, null, 0, 0);
+            return;
         }
 
         /**
-         * Now we start injecting our own stuff.
+         * Events that fit are written as usual. Only when the truncatable fields
+         * alone would blow the budget is the event sized before it is written, so an
+         * oversized message is never copied into the buffer in full.
          */
-        logstashEvent.put("source_host", hostname);
-        logstashEvent.put("message", loggingEvent.getRenderedMessage());
+        TruncationPolicy policy = truncationPolicy;
+        int[] sizes = encodingBuffers.sizes();
+        int[] limits = encodingBuffers.limits();
+        measure(loggingEvent, writer, profile, mdc, sizes);
+        if (policy.truncatableBytes(sizes) < maxEventBytes) {
+            encode(loggingEvent, writer, profile, trace, mdc, null, 0, 0);
+            if (writer.byteLength() <= maxEventBytes) {
+                return;
+            }
+            writer.reset();
+        }
 
-        if (loggingEvent.getThrowableInformation() != null) {
-            final ThrowableInformation throwableInformation = loggingEvent.getThrowableInformation();
-            if (throwableInformation.getThrowable().getClass().getCanonicalName() != null) {
-                exceptionInformation.put("exception_class", throwableInformation.getThrowable().getClass().getCanonicalName());
+        policy.skeleton(limits);
+        encode(loggingEvent, writer, profile, trace, mdc, limits, 0, 0);
+        int skeletonBytes = writer.byteLength();
+        int originalSize = skeletonBytes + policy.truncatableBytes(sizes);
+        writer.reset();
+
+        policy.allot(maxEventBytes - skeletonBytes - TruncationPolicy.markerBytes(originalSize), sizes, limits);
+        encode(loggingEvent, writer, profile, trace, mdc, limits, originalSize, 0);
+        if (writer.byteLength() <= maxEventBytes) {
+            return;
+        }
+
+        // the fields that are never truncated do not fit on their own: drop the user
+        // fields and the thread name, and share what that frees among the others
+        writer.reset();
+        policy.skeleton(limits);
+        encode(loggingEvent, writer, profile, trace, mdc, limits, 0, DROPPABLE_FIELDS);
+        skeletonBytes = writer.byteLength();
+        writer.reset();
+
+        policy.allot(maxEventBytes - skeletonBytes - TruncationPolicy.markerBytes(originalSize), sizes, limits);
+        encode(loggingEvent, writer, profile, trace, mdc, limits, originalSize, DROPPABLE_FIELDS);
+        if (writer.byteLength() > maxEventBytes) {
+            writer.reset();
+            encodeMinimal(loggingEvent, writer, originalSize, maxEventBytes);
+        }
+    }
+
+    /**
+     * Writes only the fields v1 requires, the level, the logger name and the truncation
+     * marker, for events whose other fields exceed the size limit even with every
+     * truncatable and droppable field removed. The logger name is cut down to the room
+     * that is left, and the level is dropped only if not even an empty logger name
+     * fits next to it.
+     */
+    private void encodeMinimal(LoggingEvent loggingEvent, JsonWriter writer, int originalSize, int maxEventBytes) {
+        String loggerName = loggingEvent.getLoggerName();
+        KeyDictionary dictionary = this.dictionary;
+        if (dictionary != null && loggerName != null) {
+            loggerName = dictionary.abbreviate(loggerName);
+        }
+        boolean withLevel = true;
+        int room = 0;
+        if (loggerName != null) {
+            encodeMinimal(loggingEvent, writer, originalSize, true, null, 0);
+            room = maxEventBytes - writer.byteLength() - LOGGER_NAME_OVERHEAD;
+            writer.reset();
+            if (room < 2) {
+                withLevel = false;
+                encodeMinimal(loggingEvent, writer, originalSize, false, null, 0);
+                room = maxEventBytes - writer.byteLength() - LOGGER_NAME_OVERHEAD;
+                writer.reset();
             }
-            if (throwableInformation.getThrowable().getMessage() != null) {
-                exceptionInformation.put("exception_message", throwableInformation.getThrowable().getMessage());
+        }
+        encodeMinimal(loggingEvent, writer, originalSize, withLevel, loggerName, room);
+    }
+
+    private static void encodeMinimal(LoggingEvent loggingEvent, JsonWriter writer, int originalSize, boolean withLevel, String loggerName, int loggerNameBytes) {
+        writer.beginObject();
+        writer.name("@version").value(version);
+        writer.name("@timestamp").timestampValue(loggingEvent.getTimeStamp());
+        if (withLevel) {
+            writer.name("level").value(loggingEvent.getLevel().toString());
+        }
+        if (loggerName != null) {
+            writer.name("logger_name").value(loggerName, loggerNameBytes);
+        }
+        writer.name("truncated").value(true);
+        writer.name("original_size").value(originalSize);
+        writer.endObject();
+        writer.getBuffer().append('\n');
+    }
+
+    /**
+     * Writes the fields of the event that {@code profile} includes, or all of them
+     * without a profile. When {@code limits} is given, each truncatable field is written
+     * within the member size it allows and the event is marked as truncated. Fields
+     * whose bit is set in {@code omitted} are left out.
+     */
+    private void encode(LoggingEvent loggingEvent, JsonWriter writer, Profile profile, TraceContext trace, Map<?, ?> mdc, int[] limits, int originalSize, int omitted) {
+        Redactor redactor = this.redactor;
+        KeyDictionary dictionary = this.dictionary;
+        String threadName = loggingEvent.getThreadName();
+        long timestamp = loggingEvent.getTimeStamp();
+        String ndc = loggingEvent.getNDC();
+
+        writer.beginObject();
+        writer.sortMembers(sortMdcKeys);
+        boolean locationInfo = profile != null || this.locationInfo;
+        for (int field : fieldOrder) {
+            if (!includes(profile, field) || (omitted & (1 << field)) != 0) {
+                continue;
             }
-            if (throwableInformation.getThrowableStrRep() != null) {
-                String stackTrace = String.join("\n", throwableInformation.getThrowableStrRep());
-                exceptionInformation.put("stacktrace", stackTrace);
+            switch (field) {
+                /**
+                 * All v1 of the event format requires is
+                 * "@timestamp" and "@version"
+                 * Every other field is arbitrary
+                 */
+                case VERSION:
+                    writer.name("@version").value(version);
+                    break;
+                case TIMESTAMP:
+                    writer.name("@timestamp").timestampValue(timestamp);
+                    break;
+                case USER_FIELDS:
+                    /**
+                     * Add fields from log4j config and system properties, if defined.
+                     * Note that CLI props will override conflicts with log4j config
+                     */
+                    UserFields userFields = resolveUserFields();
+                    String[] pairs = userFields.pairs;
+                    for (int i = 0; i < pairs.length; i += 2) {
+                        int shadowed = userFields.shadowed[i / 2];
+                        if (shadowed < 0 || !writes(shadowed, loggingEvent, profile, trace, mdc, limits, omitted)) {
+                            writer.name(pairs[i]).value(pairs[i + 1]);
+                        }
+                    }
+                    break;
+                case SOURCE_HOST:
+                    writer.name("source_host").value(getSourceHost());
+                    break;
+                case MESSAGE:
+                    writer.redactWith(redactor);
+                    addEventData(writer, Field.MESSAGE, loggingEvent.getRenderedMessage(), limits);
+                    writer.redactWith(null);
+                    break;
+                case EXCEPTION:
+                    if (loggingEvent.getThrowableInformation() != null) {
+                        addException(writer, loggingEvent.getThrowableInformation(), redactor, limits);
+                    }
+                    break;
+                case FILE:
+                    if (locationInfo) {
+                        addEventData(writer, "file", loggingEvent.getLocationInformation().getFileName());
+                    }
+                    break;
+                case LINE_NUMBER:
+                    if (locationInfo) {
+                        addEventData(writer, "line_number", loggingEvent.getLocationInformation().getLineNumber());
+                    }
+                    break;
+                case CLASS:
+                    if (locationInfo) {
+                        addEventData(writer, "class", loggingEvent.getLocationInformation().getClassName());
+                    }
+                    break;
+                case METHOD:
+                    if (locationInfo) {
+                        addEventData(writer, "method", loggingEvent.getLocationInformation().getMethodName());
+                    }
+                    break;
+                case LOGGER_NAME:
+                    String loggerName = loggingEvent.getLoggerName();
+                    addEventData(writer, "logger_name", dictionary != null && loggerName != null ? dictionary.abbreviate(loggerName) : loggerName);
+                    break;
+                case MDC:
+                    writer.redactWith(redactor).abbreviateWith(dictionary);
+                    int mdcLimit = limit(limits, Field.MDC);
+                    if (mdcLimit < 0) {
+                        writer.name("mdc").beginObject().members(mdc).endObject();
+                    } else if (mdcLimit >= Field.MDC.overhead() + 2) {
+                        writer.name("mdc").beginObject().members(mdc, mdcLimit - Field.MDC.overhead() - 2).endObject();
+                    }
+                    writer.redactWith(null).abbreviateWith(null);
+                    break;
+                case NDC:
+                    writer.redactWith(redactor);
+                    addEventData(writer, Field.NDC, ndc, limits);
+                    writer.redactWith(null);
+                    break;
+                case LEVEL:
+                    addEventData(writer, "level", loggingEvent.getLevel().toString());
+                    break;
+                case THREAD_NAME:
+                    addEventData(writer, "thread_name", threadName);
+                    break;
+                case TRACE_ID:
+                    if (trace != null) {
+                        if (trace.isWide()) {
+                            writer.name("trace_id").hexValue(trace.getTraceIdHigh(), trace.getTraceIdLow());
+                        } else {
+                            writer.name("trace_id").hexValue(trace.getTraceIdLow());
+                        }
+                    }
+                    break;
+                case SPAN_ID:
+                    if (trace != null) {
+                        writer.name("span_id").hexValue(trace.getSpanId());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (originalSize > 0) {
+            writer.name("truncated").value(true);
+            writer.name("original_size").value(originalSize);
+        }
+
+        writer.endObject();
+        writer.getBuffer().append('\n');
+    }
+
+    private static void addException(JsonWriter writer, ThrowableInformation throwableInformation, Redactor redactor, int[] limits) {
+        writer.name("exception").beginObject();
+        String exceptionClass = RecordedThrowable.classNameOf(throwableInformation);
+        if (exceptionClass != null) {
+            writer.name("exception_class").value(exceptionClass);
+        }
+        writer.redactWith(redactor);
+        addEventData(writer, Field.EXCEPTION_MESSAGE, RecordedThrowable.messageOf(throwableInformation), limits);
+        String[] stackTrace = throwableInformation.getThrowableStrRep();
+        if (stackTrace != null) {
+            int limit = limit(limits, Field.STACKTRACE);
+            if (limit < 0) {
+                writer.name("stacktrace").joinedValue(stackTrace);
+            } else if (limit >= Field.STACKTRACE.overhead() + 2) {
+                writer.name("stacktrace").joinedValue(stackTrace, limit - Field.STACKTRACE.overhead());
+            }
+        }
+        writer.redactWith(null);
+        writer.endObject();
+    }
+
+    /**
+     * Records the full member size of each truncatable field of the event in {@code sizes},
+     * 0 for fields that {@code profile} leaves out.
+     */
+    private void measure(LoggingEvent loggingEvent, JsonWriter writer, Profile profile, Map<?, ?> mdc, int[] sizes) {
+        writer.redactWith(redactor);
+        sizes[Field.MESSAGE.ordinal()] = includes(profile, MESSAGE) ? memberSize(writer, Field.MESSAGE, loggingEvent.getRenderedMessage()) : 0;
+        sizes[Field.EXCEPTION_MESSAGE.ordinal()] = 0;
+        sizes[Field.STACKTRACE.ordinal()] = 0;
+        if (loggingEvent.getThrowableInformation() != null && includes(profile, EXCEPTION)) {
+            ThrowableInformation throwableInformation = loggingEvent.getThrowableInformation();
+            sizes[Field.EXCEPTION_MESSAGE.ordinal()] = memberSize(writer, Field.EXCEPTION_MESSAGE, RecordedThrowable.messageOf(throwableInformation));
+            String[] stackTrace = throwableInformation.getThrowableStrRep();
+            if (stackTrace != null) {
+                sizes[Field.STACKTRACE.ordinal()] = Field.STACKTRACE.overhead() + writer.measure(stackTrace);
             }
-            addEventData("exception", exceptionInformation);
         }
+        writer.abbreviateWith(dictionary);
+        sizes[Field.MDC.ordinal()] = includes(profile, MDC) ? Field.MDC.overhead() + 2 + writer.membersLength(mdc) : 0;
+        writer.abbreviateWith(null);
+        sizes[Field.NDC.ordinal()] = includes(profile, NDC) ? memberSize(writer, Field.NDC, loggingEvent.getNDC()) : 0;
+        writer.redactWith(null);
+    }
 
-        if (locationInfo) {
-            LocationInfo info = loggingEvent.getLocationInformation();
-            addEventData("file", info.getFileName());
-            addEventData("line_number", info.getLineNumber());
-            addEventData("class", info.getClassName());
-            addEventData("method", info.getMethodName());
+    /**
+     * @return true if {@code field} is written under {@code profile}. The fields v1
+     *         requires are always written.
+     */
+    /**
+     * @return true if {@link #encode} writes {@code field} for this event. A user field
+     *         of the same name then gives way, as it did when the event was built on
+     *         JSONObject and the layout's own values replaced those put before them.
+     */
+    private boolean writes(int field, LoggingEvent loggingEvent, Profile profile, TraceContext trace, Map<?, ?> mdc, int[] limits, int omitted) {
+        if (!includes(profile, field) || (omitted & (1 << field)) != 0) {
+            return false;
+        }
+        boolean locationInfo = profile != null || this.locationInfo;
+        switch (field) {
+            case MESSAGE:
+                return loggingEvent.getRenderedMessage() != null && fits(limits, Field.MESSAGE);
+            case EXCEPTION:
+                return loggingEvent.getThrowableInformation() != null;
+            case FILE:
+                return locationInfo && loggingEvent.getLocationInformation().getFileName() != null;
+            case LINE_NUMBER:
+                return locationInfo && loggingEvent.getLocationInformation().getLineNumber() != null;
+            case CLASS:
+                return locationInfo && loggingEvent.getLocationInformation().getClassName() != null;
+            case METHOD:
+                return locationInfo && loggingEvent.getLocationInformation().getMethodName() != null;
+            case LOGGER_NAME:
+                return loggingEvent.getLoggerName() != null;
+            case MDC:
+                return fits(limits, Field.MDC);
+            case NDC:
+                return loggingEvent.getNDC() != null && fits(limits, Field.NDC);
+            case THREAD_NAME:
+                return loggingEvent.getThreadName() != null;
+            case TRACE_ID:
+            case SPAN_ID:
+                return trace != null;
+            default:
+                return true;
         }
+    }
+
+    /**
+     * @return true if {@code field} is written at all within {@code limits}.
+     */
+    private static boolean fits(int[] limits, Field field) {
+        int limit = limit(limits, field);
+        return limit < 0 || limit >= field.overhead() + 2;
+    }
 
-        addEventData("logger_name", loggingEvent.getLoggerName());
-        addEventData("mdc", mdc);
-        addEventData("ndc", ndc);
-        addEventData("level", loggingEvent.getLevel().toString());
-        addEventData("thread_name", threadName);
+    private static boolean includes(Profile profile, int field) {
+        return profile == null || field == VERSION || field == TIMESTAMP || profile.includes(field);
+    }
 
-        return logstashEvent.toString() + "\n";
+    private static int memberSize(JsonWriter writer, Field field, String value) {
+        return value == null ? 0 : field.overhead() + writer.measure((CharSequence) value);
+    }
+
+    private static int limit(int[] limits, Field field) {
+        return limits == null ? -1 : limits[field.ordinal()];
     }
 
     public boolean ignoresThrowable() {
@@ -154,28 +770,487 @@ public class JSONEventLayoutV1 extends Layout {
         this.locationInfo = locationInfo;
     }
 
+    /**
+     * Query the host name written as {@code source_host}.
+     *
+     * @return the host name.
+     */
+    public String getSourceHost() {
+        String hostname = this.hostname;
+        return hostname != null ? hostname : HostData.localHostName();
+    }
+
+    /**
+     * Set the host name written as {@code source_host} instead of the local host name,
+     * e.g. when the local name is meaningless inside a container or when replaying
+     * events that were logged elsewhere.
+     *
+     * @param sourceHost the host name, or null for the local host name.
+     */
+    public void setSourceHost(String sourceHost) {
+        this.hostname = sourceHost;
+    }
+
     public String getUserFields() { return customUserFields; }
     public void setUserFields(String userFields) { this.customUserFields = userFields; }
 
+    /**
+     * Query whether the layout recycles its per-thread encoding buffers.
+     *
+     * @return true if garbage-free mode is enabled, false otherwise.
+     */
+    public boolean getGarbageFree() {
+        return garbageFree;
+    }
+
+    /**
+     * Set whether the layout keeps one encoding buffer per thread and reuses it for
+     * every event instead of allocating a new one. Combined with
+     * {@link #formatTo(LoggingEvent, StringBuilder)} or {@link #formatTo(LoggingEvent, Writer)}
+     * this makes formatting allocate nothing but log4j's view of each event's MDC once
+     * the buffers have warmed up. Each
+     * thread's buffer follows the sizes of its recent events and is trimmed again after
+     * an unusually large one; see {@link BufferManager}.
+     *
+     * @param garbageFree true to recycle buffers, false to allocate them per event.
+     */
+    public void setGarbageFree(boolean garbageFree) {
+        this.garbageFree = garbageFree;
+    }
+
+    /**
+     * Query the heap held by the per-thread buffers of {@link #setGarbageFree(boolean) garbage-free mode}.
+     *
+     * @return the approximate number of bytes retained by the buffers of all threads.
+     */
+    public long getBufferMemory() {
+        return buffers.getRetainedBytes();
+    }
+
+    /**
+     * Query the number of threads holding buffers in garbage-free mode.
+     *
+     * @return the number of live threads with buffers.
+     */
+    public int getBufferedThreads() {
+        return buffers.getThreads();
+    }
+
+    /**
+     * Query the heap held by the pool of large buffers shared by every layout.
+     *
+     * @return the approximate number of bytes retained by pooled buffers.
+     */
+    public long getSharedBufferMemory() {
+        return buffers.getPooledBytes();
+    }
+
+    /**
+     * Query the maximum size of an event.
+     *
+     * @return the maximum number of UTF-8 bytes per event, or 0 if events are unbounded.
+     */
+    public int getMaxEventBytes() {
+        return maxEventBytes;
+    }
+
+    /**
+     * Set the maximum size of an event in UTF-8 bytes, trailing newline included.
+     * Larger events have the fields named by {@link #setTruncationOrder(String)}
+     * shortened or dropped until they fit, and are marked with {@code "truncated":true}
+     * and their {@code original_size}. Other fields, such as the logger name, thread
+     * name and user fields, are written in full; if they alone exceed the limit, the
+     * event is reduced to {@code @version}, {@code @timestamp}, {@code level} and the
+     * marker.
+     *
+     * @param maxEventBytes the maximum size, at least {@value #MIN_EVENT_BYTES}, or 0
+     *                      to leave events unbounded.
+     */
+    public void setMaxEventBytes(int maxEventBytes) {
+        if (maxEventBytes > 0 && maxEventBytes < MIN_EVENT_BYTES) {
+            LogLog.error("[" + this.getClass().getSimpleName() + "] Ignoring MaxEventBytes " + maxEventBytes + " below the minimum of " + MIN_EVENT_BYTES);
+            return;
+        }
+        this.maxEventBytes = maxEventBytes;
+    }
+
+    /**
+     * Query the order in which fields are truncated.
+     *
+     * @return the comma-separated field names.
+     */
+    public String getTruncationOrder() {
+        return truncationOrder;
+    }
+
+    /**
+     * Set which fields may be truncated when an event exceeds {@link #setMaxEventBytes(int)},
+     * and in which order, e.g. {@code stacktrace,mdc,message}. Supported fields are
+     * {@code message}, {@code exception_message}, {@code stacktrace}, {@code mdc} and {@code ndc}.
+     *
+     * @param truncationOrder the comma-separated field names, the first to be truncated first.
+     */
+    public void setTruncationOrder(String truncationOrder) {
+        try {
+            this.truncationPolicy = TruncationPolicy.parse(truncationOrder);
+            this.truncationOrder = truncationOrder;
+        } catch (IllegalArgumentException e) {
+            LogLog.error("[" + this.getClass().getSimpleName() + "] Ignoring TruncationOrder " + truncationOrder, e);
+        }
+    }
+
+    /**
+     * Query the number of threads used to encode batches.
+     *
+     * @return the parallelism of the batch pool, or 0 if the common pool is used.
+     */
+    public int getBatchParallelism() {
+        return batchParallelism;
+    }
+
+    /**
+     * Set the number of threads {@link #formatBatch(List)} encodes large batches on.
+     * The layout then owns a dedicated pool of that size; with 0, the default, it
+     * borrows {@link ForkJoinPool#commonPool()} instead.
+     *
+     * @param batchParallelism the number of threads, or 0 to use the common pool.
+     */
+    public synchronized void setBatchParallelism(int batchParallelism) {
+        ForkJoinPool retired = batchParallelism != this.batchParallelism ? batchPool : null;
+        this.batchParallelism = batchParallelism;
+        if (retired != null) {
+            // swap first, so new batches go to the new pool; batches already running on
+            // the old one still complete, as shutdown only stops it accepting tasks
+            batchPool = null;
+            retired.shutdown();
+        }
+    }
+
+    /**
+     * Query the configured field order.
+     *
+     * @return the comma-separated field names, or null for the default order.
+     */
+    public String getFieldOrder() {
+        return fieldOrderNames;
+    }
+
+    /**
+     * Set the order in which fields are written, e.g. {@code @timestamp,level,logger_name,message}.
+     * Fields that are not listed follow in their default order: {@code @version},
+     * {@code @timestamp}, {@code user_fields}, {@code source_host}, {@code message},
+     * {@code exception}, {@code file}, {@code line_number}, {@code class}, {@code method},
+     * {@code logger_name}, {@code mdc}, {@code ndc}, {@code level}, {@code thread_name},
+     * {@code trace_id} and {@code span_id}.
+     * The truncation marker is always written last.
+     *
+     * @param fieldOrder the comma-separated field names.
+     */
+    public void setFieldOrder(String fieldOrder) {
+        try {
+            this.fieldOrder = FieldOrder.resolve(fieldOrder, DEFAULT_FIELD_ORDER);
+            this.fieldOrderNames = fieldOrder;
+        } catch (IllegalArgumentException e) {
+            LogLog.error("[" + this.getClass().getSimpleName() + "] Ignoring FieldOrder " + fieldOrder, e);
+        }
+    }
+
+    /**
+     * Query whether MDC entries are written sorted by key.
+     *
+     * @return true if MDC keys are sorted, false if they are written in the MDC's order.
+     */
+    public boolean getSortMdcKeys() {
+        return sortMdcKeys;
+    }
+
+    /**
+     * Set whether MDC entries are written sorted by key, which is the default. The
+     * MDC is a Hashtable, so otherwise the order of its keys varies between events.
+     *
+     * @param sortMdcKeys true to sort MDC keys, false to write them in the MDC's order.
+     */
+    public void setSortMdcKeys(boolean sortMdcKeys) {
+        this.sortMdcKeys = sortMdcKeys;
+    }
+
+    /**
+     * Query the number of events between two full dictionary headers.
+     *
+     * @return the interval, or 0 if dictionary encoding is disabled.
+     */
+    public int getDictionaryInterval() {
+        return dictionaryInterval;
+    }
+
+    /**
+     * Enable dictionary encoding: logger names and MDC keys are written as short
+     * references such as {@code #3}, defined by {@code {"@dictionary":{...}}} header
+     * lines. A header with the new entries precedes the first event that uses them, and
+     * one with all entries is written every {@code dictionaryInterval} events, so a
+     * reader can pick up the stream after a rotation. The output is restored with
+     * {@link net.logstash.log4j.encoder.DictionaryDecoder}. Headers are only in the right
+     * place if events are written in the order they are formatted, as log4j's appenders do.
+     *
+     * @param dictionaryInterval the number of events between full headers, or 0 to disable.
+     */
+    public synchronized void setDictionaryInterval(int dictionaryInterval) {
+        this.dictionaryInterval = dictionaryInterval;
+        this.dictionary = dictionaryInterval > 0 ? new KeyDictionary(DICTIONARY_CAPACITY, dictionaryInterval) : null;
+    }
+
+    public String getProfiles() { return profiles; }
+
+    /**
+     * Define named sets of fields, e.g. {@code lean=message,level,logger_name;full=*},
+     * for {@link #setProfileRules(String)} to select from. Field names are those of
+     * {@link #setFieldOrder(String)}; {@code @version} and {@code @timestamp} are always
+     * written. A profile that lists the location fields writes them regardless of
+     * {@link #setLocationInfo(boolean)}.
+     *
+     * @param profiles the profiles as {@code name=field,...} entries separated by semicolons.
+     */
+    public void setProfiles(String profiles) {
+        this.profiles = profiles;
+        updateProfiles();
+    }
+
+    public String getProfileRules() { return profileRules; }
+
+    /**
+     * Select a profile by level and logger name, e.g. {@code DEBUG:com.example.chatty=lean;ERROR=full}.
+     * The level may be {@code *} and the logger prefix may be left out. The rule with the
+     * longest matching prefix wins, and a rule for the event's level beats one for
+     * {@code *}. Events no rule matches are written with every field, as without profiles.
+     *
+     * @param profileRules the rules as {@code LEVEL:prefix=profile} entries separated by semicolons.
+     */
+    public void setProfileRules(String profileRules) {
+        this.profileRules = profileRules;
+        updateProfiles();
+    }
+
+    public String getRedactPatterns() { return redactPatterns; }
+
+    /**
+     * Set the built-in detectors whose matches are masked in the message, exception,
+     * MDC values and NDC, as a comma-separated list of {@code card} and {@code email}.
+     *
+     * @param redactPatterns the detector names.
+     */
+    public void setRedactPatterns(String redactPatterns) {
+        this.redactPatterns = redactPatterns;
+        updateRedactor();
+    }
+
+    public String getRedactRegex() { return redactRegex; }
+
+    /**
+     * Set a regular expression whose matches are masked like those of
+     * {@link #setRedactPatterns(String)}. Several expressions can be combined with {@code |}.
+     *
+     * @param redactRegex the expression.
+     */
+    public void setRedactRegex(String redactRegex) {
+        this.redactRegex = redactRegex;
+        updateRedactor();
+    }
+
+    public String getRedactLiterals() { return redactLiterals; }
+
+    /**
+     * Set literal strings that are masked wherever they occur, as a comma-separated list.
+     *
+     * @param redactLiterals the literals.
+     */
+    public void setRedactLiterals(String redactLiterals) {
+        this.redactLiterals = redactLiterals;
+        updateRedactor();
+    }
+
+    public String getRedactMdcKeys() { return redactMdcKeys; }
+
+    /**
+     * Set the MDC keys whose values are masked entirely, as a comma-separated list.
+     * Keys are matched ignoring case.
+     *
+     * @param redactMdcKeys the keys.
+     */
+    public void setRedactMdcKeys(String redactMdcKeys) {
+        this.redactMdcKeys = redactMdcKeys;
+        updateRedactor();
+    }
+
+    public String getRedactMask() { return redactMask; }
+
+    /**
+     * Set the text that replaces masked data. Defaults to {@value Redactor#DEFAULT_MASK}.
+     *
+     * @param redactMask the mask.
+     */
+    public void setRedactMask(String redactMask) {
+        this.redactMask = redactMask;
+        updateRedactor();
+    }
+
     public void activateOptions() {
     }
 
-    private void addUserFields(String data) {
+    /**
+     * Rebuilds the profile selector once profiles are defined. Until then rules are
+     * only stored, so that the two options can be set in either order.
+     */
+    private void updateProfiles() {
+        if (profiles == null) {
+            profileSelector = null;
+            return;
+        }
+        try {
+            profileSelector = ProfileSelector.parse(profiles, profileRules, DEFAULT_FIELD_ORDER);
+        } catch (IllegalArgumentException e) {
+            profileSelector = null;
+            LogLog.error("[" + this.getClass().getSimpleName() + "] Ignoring Profiles " + profiles + " with ProfileRules " + profileRules, e);
+        }
+    }
+
+    private void updateRedactor() {
+        String whoami = this.getClass().getSimpleName();
+        if (redactPatterns == null && redactRegex == null && redactLiterals == null && redactMdcKeys == null) {
+            redactor = null;
+            return;
+        }
+        Redactor.Builder builder = Redactor.builder().mask(redactMask != null ? redactMask : Redactor.DEFAULT_MASK);
+        for (String name : split(redactPatterns)) {
+            try {
+                builder.builtin(name);
+            } catch (IllegalArgumentException e) {
+                LogLog.error("[" + whoami + "] Ignoring RedactPatterns entry " + name, e);
+            }
+        }
+        if (redactRegex != null && !redactRegex.isEmpty()) {
+            try {
+                builder.regex(redactRegex);
+            } catch (PatternSyntaxException e) {
+                LogLog.error("[" + whoami + "] Ignoring RedactRegex " + redactRegex, e);
+            }
+        }
+        for (String literal : split(redactLiterals)) {
+            builder.literal(literal);
+        }
+        for (String key : split(redactMdcKeys)) {
+            builder.key(key);
+        }
+        redactor = builder.build();
+    }
+
+    private static String[] split(String list) {
+        if (list == null || list.trim().isEmpty()) {
+            return new String[0];
+        }
+        return list.trim().split("\\s*,\\s*");
+    }
+
+    /**
+     * Returns the parsed user fields, re-parsing only when the configured value or
+     * the system property has changed since the last event.
+     */
+    private UserFields resolveUserFields() {
+        String config = getUserFields();
+        String property = System.getProperty(ADDITIONAL_DATA_PROPERTY);
+        UserFields current = userFields;
+        if (current.config != config || current.property != property) {
+            current = parseUserFields(config, property);
+            userFields = current;
+        }
+        return current;
+    }
+
+    private UserFields parseUserFields(String config, String property) {
+        String whoami = this.getClass().getSimpleName();
+        Map<String, String> fields = new LinkedHashMap<>();
+
+        /**
+         * Extract and add fields from log4j config, if defined
+         */
+        if (config != null) {
+            LogLog.debug("["+whoami+"] Got user data from log4j property: "+ config);
+            addUserFields(fields, config);
+        }
+
+        /**
+         * Extract fields from system properties, if defined
+         * Note that CLI props will override conflicts with log4j config
+         */
+        if (property != null) {
+            if (config != null) {
+                LogLog.warn("["+whoami+"] Loading UserFields from command-line. This will override any UserFields set in the log4j configuration file");
+            }
+            LogLog.debug("["+whoami+"] Got user data from system property: " + property);
+            addUserFields(fields, property);
+        }
+
+        String[] pairs = new String[fields.size() * 2];
+        int[] shadowed = new int[fields.size()];
+        List<String> layoutFields = Arrays.asList(DEFAULT_FIELD_ORDER);
+        int i = 0;
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            int index = layoutFields.indexOf(field.getKey());
+            shadowed[i / 2] = index != USER_FIELDS ? index : -1;
+            pairs[i++] = field.getKey();
+            pairs[i++] = field.getValue();
+        }
+        return new UserFields(config, property, pairs, shadowed);
+    }
+
+    private void addUserFields(Map<String, String> fields, String data) {
         if (null != data) {
             String[] pairs = data.split(",");
             for (String pair : pairs) {
                 String[] userField = pair.split(":", 2);
-                if (userField[0] != null) {
+                if (userField.length == 2) {
                     String key = userField[0];
                     String val = userField[1];
-                    addEventData(key, val);
+                    fields.put(key, val);
                 }
             }
         }
     }
-    private void addEventData(String keyname, Object keyval) {
+
+    private static void addEventData(JsonWriter writer, String keyname, String keyval) {
         if (null != keyval) {
-            logstashEvent.put(keyname, keyval);
+            writer.name(keyname).value(keyval);
+        }
+    }
+
+    private static void addEventData(JsonWriter writer, Field field, String keyval, int[] limits) {
+        if (null != keyval) {
+            int limit = limit(limits, field);
+            if (limit < 0) {
+                writer.name(field.key()).value(keyval);
+            } else if (limit >= field.overhead() + 2) {
+                writer.name(field.key()).value(keyval, limit - field.overhead());
+            }
+        }
+    }
+
+    /**
+     * Immutable snapshot of the user fields as flattened key/value pairs, together
+     * with the raw values they were parsed from and, for each pair, the layout field
+     * of the same name or -1.
+     */
+    private static final class UserFields {
+        static final UserFields EMPTY = new UserFields(null, null, new String[0], new int[0]);
+
+        final String config;
+        final String property;
+        final String[] pairs;
+        final int[] shadowed;
+
+        UserFields(String config, String property, String[] pairs, int[] shadowed) {
+            this.config = config;
+            this.property = property;
+            this.pairs = pairs;
+            this.shadowed = shadowed;
         }
     }
 }
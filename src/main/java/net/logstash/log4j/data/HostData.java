@@ -1,9 +1,30 @@
 package net.logstash.log4j.data;
 
 import java.net.UnknownHostException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * The name of the local host, resolved once per process.
+ *
+ * Resolving the local host name can block for seconds when reverse DNS is slow, and
+ * the JVM only caches the result for a few seconds, so layouts share a single lookup
+ * instead of each doing its own. Layouts start it on a background thread with
+ * {@link #resolveInBackground()} when they are constructed, and the first event that
+ * needs the name waits for it, or resolves it on the spot if the lookup has not
+ * started.
+ */
 public class HostData {
 
+    private static final String UNKNOWN_HOST = "unknown-host";
+
+    private static final FutureTask<String> LOOKUP = new FutureTask<>(HostData::lookUpLocalHostName);
+
+    private static final AtomicBoolean LOOKUP_STARTED = new AtomicBoolean();
+
+    private static volatile String localHostName;
+
     public String hostName;
 
     public String getHostName() {
@@ -15,10 +36,59 @@ public class HostData {
     }
 
     public HostData() {
+        this.hostName = localHostName();
+    }
+
+    /**
+     * Starts resolving the local host name on a daemon thread, unless that has already
+     * been started. Returns immediately.
+     */
+    public static void resolveInBackground() {
+        if (localHostName == null && LOOKUP_STARTED.compareAndSet(false, true)) {
+            Thread thread = new Thread(LOOKUP, "jsonevent-layout-hostname");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * @return the name of the local host, or {@code unknown-host} if it cannot be
+     *         resolved. Blocks until the shared lookup has finished.
+     */
+    public static String localHostName() {
+        String name = localHostName;
+        if (name != null) {
+            return name;
+        }
+        // does nothing if the lookup is already running or done
+        LOOKUP.run();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    name = LOOKUP.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    name = UNKNOWN_HOST;
+                    break;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        localHostName = name;
+        return name;
+    }
+
+    private static String lookUpLocalHostName() {
         try {
-            this.hostName = java.net.InetAddress.getLocalHost().getHostName();
+            return java.net.InetAddress.getLocalHost().getHostName();
         } catch (UnknownHostException e) {
-            setHostName("unknown-host");
+            return UNKNOWN_HOST;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,59 @@
+package net.logstash.log4j.data;
+
+import org.apache.log4j.spi.ThrowableInformation;
+
+/**
+ * The throwable of an event that is only known by its recorded form, such as an
+ * event read back from a log file: its class name, message and stack trace lines.
+ * {@link #getThrowable()} returns null, so layouts take the class name and message
+ * from here instead.
+ */
+public class RecordedThrowable extends ThrowableInformation {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String className;
+
+    private final String message;
+
+    /**
+     * @param className the canonical class name of the throwable, or null if unknown.
+     * @param message the message of the throwable, or null.
+     * @param stackTrace the lines of the stack trace, or null.
+     */
+    public RecordedThrowable(String className, String message, String[] stackTrace) {
+        super(stackTrace);
+        this.className = className;
+        this.message = message;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the class name of the throwable, or null if it is unknown.
+     */
+    public static String classNameOf(ThrowableInformation throwableInformation) {
+        if (throwableInformation instanceof RecordedThrowable) {
+            return ((RecordedThrowable) throwableInformation).getClassName();
+        }
+        Throwable throwable = throwableInformation.getThrowable();
+        return throwable != null ? throwable.getClass().getCanonicalName() : null;
+    }
+
+    /**
+     * @return the message of the throwable, or null if it has none or is unknown.
+     */
+    public static String messageOf(ThrowableInformation throwableInformation) {
+        if (throwableInformation instanceof RecordedThrowable) {
+            return ((RecordedThrowable) throwableInformation).getMessage();
+        }
+        Throwable throwable = throwableInformation.getThrowable();
+        return throwable != null ? throwable.getMessage() : null;
+    }
+}
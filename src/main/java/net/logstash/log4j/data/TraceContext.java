@@ -0,0 +1,147 @@
+package net.logstash.log4j.data;
+
+/**
+ * The trace and span of the work the current thread is doing, written by
+ * {@code JSONEventLayoutV1} as the top-level {@code trace_id} and {@code span_id}
+ * fields of every event formatted on that thread.
+ *
+ * The IDs are kept as primitive longs in one mutable holder per thread and are
+ * hex-encoded straight into the output, so logging with them never allocates.
+ * Setting them only allocates the holder, the first time after a {@link #clear()}.
+ * Trace IDs are either 64 bits (16 hex digits) or 128 bits (32 hex digits, as in
+ * W3C Trace Context); span IDs are always 64 bits.
+ *
+ * The context belongs to the thread that formats the event. Events formatted on
+ * another thread, such as by {@code AsyncAppender}, do not carry the context of the
+ * thread that logged them. Events formatted in a batch by {@code formatBatch} carry
+ * no context at all, as the thread passing the batch usually did not log them.
+ *
+ * <pre>
+ * TraceContext.set(traceIdHigh, traceIdLow, spanId);
+ * try {
+ *     ...
+ * } finally {
+ *     TraceContext.clear();
+ * }
+ * </pre>
+ */
+public final class TraceContext {
+
+    private static final ThreadLocal<TraceContext> CURRENT = new ThreadLocal<>();
+
+    private boolean present;
+
+    private boolean wide;
+
+    private long traceIdHigh;
+
+    private long traceIdLow;
+
+    private long spanId;
+
+    private TraceContext() {
+    }
+
+    /**
+     * @return the context of the current thread, or null if none has been set or it
+     *         has been cleared.
+     */
+    public static TraceContext current() {
+        TraceContext context = CURRENT.get();
+        return context != null && context.present ? context : null;
+    }
+
+    /**
+     * Sets a 64-bit trace ID and a span ID for the current thread.
+     */
+    public static void set(long traceId, long spanId) {
+        holder().update(false, 0L, traceId, spanId);
+    }
+
+    /**
+     * Sets a 128-bit trace ID and a span ID for the current thread.
+     */
+    public static void set(long traceIdHigh, long traceIdLow, long spanId) {
+        holder().update(true, traceIdHigh, traceIdLow, spanId);
+    }
+
+    /**
+     * Sets the IDs from their hex form, e.g. as found in a {@code traceparent} header.
+     *
+     * @param traceId 16 or 32 hex digits.
+     * @param spanId 16 hex digits.
+     * @throws IllegalArgumentException if either ID is malformed.
+     */
+    public static void set(String traceId, String spanId) {
+        if ((traceId.length() != 16 && traceId.length() != 32) || spanId.length() != 16) {
+            throw new IllegalArgumentException("Expected a 16 or 32 digit trace ID and a 16 digit span ID: " + traceId + ", " + spanId);
+        }
+        boolean wide = traceId.length() == 32;
+        long high = wide ? parseHex(traceId, 0, 16) : 0L;
+        long low = parseHex(traceId, traceId.length() - 16, traceId.length());
+        holder().update(wide, high, low, parseHex(spanId, 0, 16));
+    }
+
+    /**
+     * Removes the IDs of the current thread together with its holder, so that a pooled
+     * thread, such as a servlet container's, does not keep this class and thereby the
+     * classloader of a web application reachable after it has been undeployed.
+     */
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return true if the trace ID is 128 bits wide.
+     */
+    public boolean isWide() {
+        return wide;
+    }
+
+    /**
+     * @return the upper 64 bits of a 128-bit trace ID, or 0.
+     */
+    public long getTraceIdHigh() {
+        return traceIdHigh;
+    }
+
+    /**
+     * @return the 64-bit trace ID, or the lower 64 bits of a 128-bit one.
+     */
+    public long getTraceIdLow() {
+        return traceIdLow;
+    }
+
+    public long getSpanId() {
+        return spanId;
+    }
+
+    private static TraceContext holder() {
+        TraceContext context = CURRENT.get();
+        if (context == null) {
+            context = new TraceContext();
+            CURRENT.set(context);
+        }
+        return context;
+    }
+
+    private void update(boolean wide, long traceIdHigh, long traceIdLow, long spanId) {
+        this.wide = wide;
+        this.traceIdHigh = traceIdHigh;
+        this.traceIdLow = traceIdLow;
+        this.spanId = spanId;
+        this.present = true;
+    }
+
+    private static long parseHex(String value, int start, int end) {
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(value.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Not a hex ID: " + value);
+            }
+            result = (result << 4) | digit;
+        }
+        return result;
+    }
+}
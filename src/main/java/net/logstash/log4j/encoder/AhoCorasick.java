@@ -0,0 +1,130 @@
+package net.logstash.log4j.encoder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton that finds every occurrence of a fixed set of literals in
+ * a single pass over the input.
+ *
+ * Transitions on ASCII characters are precomputed into a dense table, so scanning
+ * typical log text costs one array lookup per character. Other characters follow
+ * the sparse trie edges and failure links.
+ */
+final class AhoCorasick {
+
+    private static final int ASCII = 128;
+
+    /**
+     * Sorted edge labels and targets of each node in the trie.
+     */
+    private final char[][] labels;
+    private final int[][] targets;
+    private final int[] fail;
+
+    /**
+     * Length of the longest literal ending at each node, 0 if none does.
+     */
+    private final int[] output;
+
+    private final int[] asciiDelta;
+
+    AhoCorasick(List<String> literals) {
+        List<StringBuilder> nodeLabels = new ArrayList<>();
+        List<List<Integer>> nodeTargets = new ArrayList<>();
+        List<Integer> nodeOutput = new ArrayList<>();
+        nodeLabels.add(new StringBuilder());
+        nodeTargets.add(new ArrayList<>());
+        nodeOutput.add(0);
+
+        for (String literal : literals) {
+            int node = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                char c = literal.charAt(i);
+                int edge = nodeLabels.get(node).indexOf(String.valueOf(c));
+                if (edge < 0) {
+                    nodeLabels.get(node).append(c);
+                    nodeTargets.get(node).add(nodeLabels.size());
+                    node = nodeLabels.size();
+                    nodeLabels.add(new StringBuilder());
+                    nodeTargets.add(new ArrayList<>());
+                    nodeOutput.add(0);
+                } else {
+                    node = nodeTargets.get(node).get(edge);
+                }
+            }
+            nodeOutput.set(node, Math.max(nodeOutput.get(node), literal.length()));
+        }
+
+        int size = nodeLabels.size();
+        labels = new char[size][];
+        targets = new int[size][];
+        output = new int[size];
+        for (int node = 0; node < size; node++) {
+            char[] nodeChars = nodeLabels.get(node).toString().toCharArray();
+            Integer[] order = new Integer[nodeChars.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Character.compare(nodeChars[a], nodeChars[b]));
+            labels[node] = new char[nodeChars.length];
+            targets[node] = new int[nodeChars.length];
+            for (int i = 0; i < order.length; i++) {
+                labels[node][i] = nodeChars[order[i]];
+                targets[node][i] = nodeTargets.get(node).get(order[i]);
+            }
+            output[node] = nodeOutput.get(node);
+        }
+
+        fail = new int[size];
+        asciiDelta = new int[size * ASCII];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int i = 0; i < labels[0].length; i++) {
+            queue.add(targets[0][i]);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int i = 0; i < labels[node].length; i++) {
+                int child = targets[node][i];
+                fail[child] = follow(fail[node], labels[node][i]);
+                output[child] = Math.max(output[child], output[fail[child]]);
+                queue.add(child);
+            }
+        }
+        for (int node = 0; node < size; node++) {
+            for (char c = 0; c < ASCII; c++) {
+                asciiDelta[node * ASCII + c] = follow(node, c);
+            }
+        }
+    }
+
+    /**
+     * Scans {@code value} and reports the longest literal ending at each position.
+     */
+    void find(CharSequence value, Redactor.Matches matches) {
+        int node = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            node = c < ASCII ? asciiDelta[node * ASCII + c] : follow(node, c);
+            if (output[node] > 0) {
+                matches.add(i + 1 - output[node], i + 1);
+            }
+        }
+    }
+
+    private int follow(int node, char c) {
+        while (true) {
+            int edge = Arrays.binarySearch(labels[node], c);
+            if (edge >= 0) {
+                return targets[node][edge];
+            }
+            if (node == 0) {
+                return 0;
+            }
+            node = fail[node];
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package net.logstash.log4j.encoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out per-thread {@link EncodingBuffers} whose capacity follows the sizes of
+ * the events each thread actually formats.
+ *
+ * Every thread keeps a decaying estimate of the 95th percentile of its recent event
+ * sizes: the estimate is raised by about 5% for each event above it and lowered by
+ * a twentieth of that for each event below it, so it settles where one event in
+ * twenty is larger. Formatting never reallocates a buffer: a buffer that an outlier
+ * grew is kept as it is until the next sweep, which trims it back to a little more
+ * than the estimate once it is more than twice that. A workload that mixes small
+ * and large events therefore regrows its buffer at most once per sweep interval.
+ * Events expected to be larger than {@link #LARGE_EVENT_CHARS} are encoded into a
+ * buffer borrowed from a {@link BufferPool} shared by all threads and returned
+ * afterwards.
+ *
+ * Sweeps are not scheduled. They run, at most once per sweep interval, when a
+ * thread formats its {@value #SWEEP_EVENTS}th event since the last check or when
+ * the diagnostics are read. A sweep trims the buffers of busy threads as described
+ * above, trims those of threads that formatted nothing since the previous sweep to
+ * the minimum and forgets threads that have died. Nothing depends on a sweep to
+ * free memory in a quiet JVM: buffers are registered weakly and become garbage
+ * together with their thread, and pooled buffers are only softly reachable.
+ *
+ * Buffers are used by one thread at a time. {@link #acquire(int)} and
+ * {@link #release(EncodingBuffers)} have to be paired on the same thread, and an
+ * event formatted while the thread's buffers are in use, such as one logged from
+ * the {@code toString()} of a message, gets unmanaged buffers of its own.
+ */
+public final class BufferManager {
+
+    /**
+     * The smallest capacity, in chars, a thread's output buffer is trimmed to.
+     */
+    public static final int MIN_CAPACITY = 256;
+
+    /**
+     * Events expected to be larger than this many chars are encoded into a pooled
+     * buffer, and no thread keeps a buffer of much more than this past a sweep.
+     */
+    public static final int LARGE_EVENT_CHARS = 32 * 1024;
+
+    private static final int SWEEP_EVENTS = 1024;
+
+    private static final double GROWTH = 1.0487;
+
+    private static final double DECAY = 0.9975;
+
+    private static final double HEADROOM = 1.25;
+
+    private final ThreadLocal<EncodingBuffers> buffers = ThreadLocal.withInitial(this::register);
+
+    /**
+     * The buffers of every thread, held weakly so that they go away with the thread
+     * even if no sweep ever runs. Iteration has to synchronize on the set.
+     */
+    private final Set<EncodingBuffers> registered = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private final BufferPool pool;
+
+    private final long sweepIntervalNanos;
+
+    private final AtomicLong lastSweep;
+
+    public BufferManager() {
+        this(BufferPool.SHARED, TimeUnit.SECONDS.toNanos(30));
+    }
+
+    BufferManager(BufferPool pool, long sweepIntervalNanos) {
+        this.pool = pool;
+        this.sweepIntervalNanos = sweepIntervalNanos;
+        this.lastSweep = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @param estimatedChars the expected size of the event, or 0 if unknown.
+     * @return buffers that are not managed, for formatting a single event.
+     */
+    public static EncodingBuffers unmanaged(int estimatedChars) {
+        return new EncodingBuffers(null, Math.max(MIN_CAPACITY, estimatedChars));
+    }
+
+    /**
+     * Takes the current thread's buffers, reset and ready to encode an event.
+     *
+     * @param estimatedChars the expected size of the event, or 0 if unknown.
+     * @return the buffers, to be handed back to {@link #release(EncodingBuffers)}.
+     */
+    public EncodingBuffers acquire(int estimatedChars) {
+        EncodingBuffers encodingBuffers = buffers.get();
+        if (!encodingBuffers.state.compareAndSet(EncodingBuffers.IDLE, EncodingBuffers.IN_USE)) {
+            return unmanaged(estimatedChars);
+        }
+        if ((++encodingBuffers.events & (SWEEP_EVENTS - 1)) == 0 && due(System.nanoTime())) {
+            // the thread's own buffers are in use, so the sweep leaves them alone
+            sweep();
+        }
+        if (estimatedChars > LARGE_EVENT_CHARS) {
+            encodingBuffers.parked = encodingBuffers.writer().swapBuffer(pool.borrow(estimatedChars));
+        } else {
+            encodingBuffers.writer().reset();
+        }
+        return encodingBuffers;
+    }
+
+    /**
+     * Hands back buffers taken by {@link #acquire(int)} once their output has been
+     * consumed, and records the size of the event they held. Never allocates unless
+     * the event was encoded into a pooled buffer.
+     */
+    public void release(EncodingBuffers encodingBuffers) {
+        if (encodingBuffers.owner == null) {
+            return;
+        }
+        JsonWriter writer = encodingBuffers.writer();
+        int length = writer.getBuffer().length();
+        encodingBuffers.estimate = Math.max(MIN_CAPACITY, encodingBuffers.estimate * (length > encodingBuffers.estimate ? GROWTH : DECAY));
+        if (encodingBuffers.parked != null) {
+            pool.offer(writer.swapBuffer(encodingBuffers.parked));
+            encodingBuffers.parked = null;
+        }
+        encodingBuffers.state.set(EncodingBuffers.IDLE);
+    }
+
+    /**
+     * Forgets the buffers of dead threads, trims those of threads that formatted
+     * nothing since the previous sweep to the minimum and those of busy threads back
+     * to their estimate, regardless of when the previous sweep was.
+     */
+    public void sweep() {
+        long now = System.nanoTime();
+        lastSweep.set(now);
+        for (EncodingBuffers encodingBuffers : snapshot()) {
+            Thread owner = encodingBuffers.owner.get();
+            if (owner == null || !owner.isAlive()) {
+                registered.remove(encodingBuffers);
+            } else if (encodingBuffers.state.compareAndSet(EncodingBuffers.IDLE, EncodingBuffers.RELEASING)) {
+                if (encodingBuffers.events == encodingBuffers.eventsAtLastSweep) {
+                    trim(encodingBuffers.writer(), MIN_CAPACITY, MIN_CAPACITY);
+                    if (encodingBuffers.header != null) {
+                        trim(encodingBuffers.header, MIN_CAPACITY, MIN_CAPACITY);
+                    }
+                    encodingBuffers.estimate = MIN_CAPACITY;
+                } else {
+                    int target = (int) Math.min(LARGE_EVENT_CHARS, encodingBuffers.estimate * HEADROOM);
+                    trim(encodingBuffers.writer(), 2 * target, target);
+                }
+                encodingBuffers.eventsAtLastSweep = encodingBuffers.events;
+                encodingBuffers.state.set(EncodingBuffers.IDLE);
+            }
+        }
+        pool.sweep(now);
+    }
+
+    /**
+     * @return the approximate number of bytes of heap held by the buffers of every
+     *         thread, including pooled buffers they have borrowed.
+     */
+    public long getRetainedBytes() {
+        maybeSweep();
+        long bytes = 0;
+        for (EncodingBuffers encodingBuffers : snapshot()) {
+            bytes += encodingBuffers.retainedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of threads that currently hold buffers.
+     */
+    public int getThreads() {
+        maybeSweep();
+        return registered.size();
+    }
+
+    /**
+     * @return the approximate number of bytes of heap held by the shared pool.
+     */
+    public long getPooledBytes() {
+        return pool.retainedBytes();
+    }
+
+    private void maybeSweep() {
+        if (due(System.nanoTime())) {
+            sweep();
+        }
+    }
+
+    private boolean due(long now) {
+        long last = lastSweep.get();
+        return now - last >= sweepIntervalNanos && lastSweep.compareAndSet(last, now);
+    }
+
+    private List<EncodingBuffers> snapshot() {
+        synchronized (registered) {
+            return new ArrayList<>(registered);
+        }
+    }
+
+    private EncodingBuffers register() {
+        EncodingBuffers encodingBuffers = new EncodingBuffers(Thread.currentThread(), MIN_CAPACITY);
+        registered.add(encodingBuffers);
+        return encodingBuffers;
+    }
+
+    /**
+     * Replaces the buffer of {@code writer} by one of {@code capacity} if it has grown
+     * beyond {@code threshold}. A large buffer is handed to the pool.
+     */
+    private void trim(JsonWriter writer, int threshold, int capacity) {
+        if (writer.getBuffer().capacity() > threshold) {
+            StringBuilder grown = writer.swapBuffer(new StringBuilder(capacity));
+            if (grown.capacity() > LARGE_EVENT_CHARS) {
+                pool.offer(grown);
+            }
+        }
+    }
+}
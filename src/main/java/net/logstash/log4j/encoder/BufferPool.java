@@ -0,0 +1,118 @@
+package net.logstash.log4j.encoder;
+
+import java.lang.ref.SoftReference;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of large output buffers shared by every thread, so that a thread
+ * formatting the odd very large event does not have to keep a buffer of that size
+ * for itself.
+ *
+ * The pool holds at most {@code maxChars} characters of buffer capacity in total;
+ * buffers that do not fit are left to the garbage collector. Buffers that nobody
+ * borrowed between two sweeps are dropped. Pooled buffers are only softly
+ * reachable, so the collector reclaims them under memory pressure even if no sweep
+ * ever runs.
+ */
+final class BufferPool {
+
+    /**
+     * The pool shared by every {@link BufferManager} created without a pool of its own.
+     */
+    static final BufferPool SHARED = new BufferPool(1 << 20, TimeUnit.SECONDS.toNanos(30));
+
+    private final ConcurrentLinkedDeque<Pooled> buffers = new ConcurrentLinkedDeque<>();
+
+    private final AtomicLong pooledChars = new AtomicLong();
+
+    private final AtomicInteger borrows = new AtomicInteger();
+
+    private final AtomicLong lastSweep;
+
+    private final long maxChars;
+
+    private final long sweepIntervalNanos;
+
+    private int borrowsAtLastSweep;
+
+    BufferPool(long maxChars, long sweepIntervalNanos) {
+        this.maxChars = maxChars;
+        this.sweepIntervalNanos = sweepIntervalNanos;
+        this.lastSweep = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @return a pooled buffer, or a new one of {@code capacity} if the pool is empty.
+     */
+    StringBuilder borrow(int capacity) {
+        borrows.incrementAndGet();
+        Pooled pooled;
+        while ((pooled = buffers.pollFirst()) != null) {
+            pooledChars.addAndGet(-pooled.capacity);
+            StringBuilder buffer = pooled.get();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return new StringBuilder(capacity);
+    }
+
+    /**
+     * Returns a buffer to the pool if there is room for it.
+     */
+    void offer(StringBuilder buffer) {
+        long capacity = buffer.capacity();
+        long pooled;
+        do {
+            pooled = pooledChars.get();
+            if (pooled + capacity > maxChars) {
+                return;
+            }
+        } while (!pooledChars.compareAndSet(pooled, pooled + capacity));
+        buffer.setLength(0);
+        buffers.offerFirst(new Pooled(buffer, (int) capacity));
+    }
+
+    /**
+     * Drops every pooled buffer if none has been borrowed since the previous sweep,
+     * at most once per sweep interval.
+     */
+    void sweep(long now) {
+        long last = lastSweep.get();
+        if (now - last < sweepIntervalNanos || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        int borrowed = borrows.get();
+        if (borrowed == borrowsAtLastSweep) {
+            Pooled pooled;
+            while ((pooled = buffers.pollFirst()) != null) {
+                pooledChars.addAndGet(-pooled.capacity);
+            }
+        }
+        borrowsAtLastSweep = borrowed;
+    }
+
+    /**
+     * @return the approximate number of bytes of heap held by pooled buffers,
+     *         counting buffers the collector has reclaimed until they are polled.
+     */
+    long retainedBytes() {
+        return 2L * pooledChars.get();
+    }
+
+    /**
+     * A pooled buffer together with its capacity, which is needed for the accounting
+     * once the collector has cleared the reference.
+     */
+    private static final class Pooled extends SoftReference<StringBuilder> {
+        final int capacity;
+
+        Pooled(StringBuilder buffer, int capacity) {
+            super(buffer);
+            this.capacity = capacity;
+        }
+    }
+}
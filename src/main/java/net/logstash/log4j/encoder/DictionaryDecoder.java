@@ -0,0 +1,124 @@
+package net.logstash.log4j.encoder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Expands the output of a layout with dictionary encoding enabled back into plain
+ * events: header lines are consumed, and logger names and MDC keys written as
+ * references are replaced by the strings they stand for. Everything else is written
+ * back unchanged, in the order it was read.
+ *
+ * Usage: {@code java net.logstash.log4j.encoder.DictionaryDecoder [input [output]]},
+ * reading from standard input and writing to standard output by default.
+ */
+public final class DictionaryDecoder {
+
+    private final Map<String, String> entries = new HashMap<>();
+
+    private final JsonWriter writer = new JsonWriter();
+
+    /**
+     * Decodes one line of output.
+     *
+     * @param line the line, without its trailing newline.
+     * @return the expanded event without a trailing newline, or null if the line is a
+     *         dictionary header or blank.
+     * @throws IllegalArgumentException if the line is not valid JSON.
+     */
+    public String decode(String line) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        Object parsed = JsonReader.parse(line);
+        if (!(parsed instanceof Map)) {
+            return line;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> event = (Map<String, Object>) parsed;
+        Object header = event.get(KeyDictionary.HEADER_KEY);
+        if (event.size() == 1 && header instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) header).entrySet()) {
+                entries.put(KeyDictionary.REFERENCE_PREFIX + String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+            }
+            return null;
+        }
+        Object loggerName = event.get("logger_name");
+        if (loggerName instanceof String) {
+            event.put("logger_name", expand((String) loggerName));
+        }
+        Object mdc = event.get("mdc");
+        if (mdc instanceof Map) {
+            event.put("mdc", expandNames((Map<?, ?>) mdc));
+        }
+        return writer.reset().value(event).getBuffer().toString();
+    }
+
+    /**
+     * Decodes every line of {@code input} into {@code output}.
+     *
+     * @throws IOException if reading or writing fails.
+     */
+    public void decode(Reader input, Writer output) throws IOException {
+        BufferedReader reader = new BufferedReader(input);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String decoded = decode(line);
+            if (decoded != null) {
+                output.write(decoded);
+                output.write('\n');
+            }
+        }
+        output.flush();
+    }
+
+    private Map<String, Object> expandNames(Map<?, ?> map) {
+        Map<String, Object> expanded = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            Object value = entry.getValue();
+            expanded.put(expand(String.valueOf(entry.getKey())), value instanceof Map ? expandNames((Map<?, ?>) value) : value);
+        }
+        return expanded;
+    }
+
+    /**
+     * @return the string {@code value} refers to, or {@code value} itself if it is
+     *         not a reference. Unknown references are left as they are.
+     */
+    private String expand(String value) {
+        if (value.isEmpty() || value.charAt(0) != KeyDictionary.REFERENCE_PREFIX) {
+            return value;
+        }
+        if (value.length() > 1 && value.charAt(1) == KeyDictionary.REFERENCE_PREFIX) {
+            return value.substring(1);
+        }
+        String entry = entries.get(value);
+        return entry != null ? entry : value;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Reader input = args.length > 0
+                ? Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)
+                : new InputStreamReader(System.in, StandardCharsets.UTF_8);
+        Writer output = args.length > 1
+                ? Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)
+                : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try {
+            new DictionaryDecoder().decode(input, output);
+        } finally {
+            input.close();
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package net.logstash.log4j.encoder;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scratch space for encoding one event at a time: the writer the event is encoded
+ * into, a writer for dictionary headers, a chunk for copying the result into a
+ * {@link java.io.Writer} and the per-field sizes and limits used for truncation.
+ *
+ * Only the writer is allocated up front. The others are allocated the first time
+ * they are asked for, so buffers that only ever encode plain events, such as those
+ * {@link BufferManager#unmanaged(int)} hands out for a single event, never hold them.
+ *
+ * Buffers handed out by a {@link BufferManager} belong to one thread and adapt the
+ * capacity of their writer to the sizes of the events that thread formats.
+ */
+public final class EncodingBuffers {
+
+    static final int IDLE = 0;
+    static final int IN_USE = 1;
+    static final int RELEASING = 2;
+
+    private final JsonWriter writer;
+
+    /**
+     * The writer for dictionary headers, or null until one is first needed.
+     */
+    JsonWriter header;
+
+    private char[] chunk;
+
+    private int[] sizes;
+
+    private int[] limits;
+
+    /**
+     * The thread the buffers belong to, or null for buffers that are used once.
+     */
+    final WeakReference<Thread> owner;
+
+    final AtomicInteger state = new AtomicInteger(IDLE);
+
+    /**
+     * The writer's own buffer while it writes into one borrowed for a large event.
+     */
+    StringBuilder parked;
+
+    /**
+     * Running estimate of a high percentile of the sizes of recent events, in chars.
+     */
+    double estimate;
+
+    int events;
+
+    int eventsAtLastSweep;
+
+    EncodingBuffers(Thread owner, int initialCapacity) {
+        this.owner = owner != null ? new WeakReference<>(owner) : null;
+        this.writer = new JsonWriter(initialCapacity);
+        this.estimate = initialCapacity;
+    }
+
+    public JsonWriter writer() {
+        return writer;
+    }
+
+    public JsonWriter header() {
+        if (header == null) {
+            header = new JsonWriter(64);
+        }
+        return header;
+    }
+
+    public char[] chunk() {
+        if (chunk == null) {
+            chunk = new char[1024];
+        }
+        return chunk;
+    }
+
+    public int[] sizes() {
+        if (sizes == null) {
+            sizes = new int[TruncationPolicy.Field.values().length];
+        }
+        return sizes;
+    }
+
+    public int[] limits() {
+        if (limits == null) {
+            limits = new int[TruncationPolicy.Field.values().length];
+        }
+        return limits;
+    }
+
+    /**
+     * @return the approximate number of bytes of heap the buffers retain.
+     */
+    long retainedBytes() {
+        StringBuilder own = parked != null ? parked : writer.getBuffer();
+        long bytes = 2L * own.capacity();
+        if (header != null) {
+            bytes += 2L * header.getBuffer().capacity();
+        }
+        if (chunk != null) {
+            bytes += 2L * chunk.length;
+        }
+        if (sizes != null) {
+            bytes += 4L * sizes.length;
+        }
+        if (limits != null) {
+            bytes += 4L * limits.length;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,72 @@
+package net.logstash.log4j.encoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Resolves the order in which a layout writes its fields.
+ *
+ * Fields named in the configured order come first, in that order; the remaining
+ * fields follow in the layout's default order. Every event is therefore written
+ * with the same key order, whatever JVM or map implementation produced it.
+ */
+public final class FieldOrder {
+
+    private FieldOrder() {
+    }
+
+    /**
+     * @param order comma-separated field names, or null for the default order.
+     * @param defaults the layout's fields in their default order.
+     * @return the indexes into {@code defaults} in the order they are to be written.
+     * @throws IllegalArgumentException if {@code order} names an unknown field.
+     */
+    public static int[] resolve(String order, String[] defaults) {
+        return resolve(order, defaults, new String[0]);
+    }
+
+    /**
+     * Like {@link #resolve(String, String[])} for layouts that nest some fields in
+     * others: names of fields that are ordered separately are skipped.
+     *
+     * @param order comma-separated field names, or null for the default order.
+     * @param defaults the fields at this level in their default order.
+     * @param others the fields at the other levels.
+     * @return the indexes into {@code defaults} in the order they are to be written.
+     * @throws IllegalArgumentException if {@code order} names a field at no level.
+     */
+    public static int[] resolve(String order, String[] defaults, String[] others) {
+        List<String> known = Arrays.asList(defaults);
+        List<String> skipped = Arrays.asList(others);
+        List<Integer> indexes = new ArrayList<>();
+        if (order != null) {
+            for (String name : order.split(",")) {
+                String trimmed = name.trim();
+                if (trimmed.isEmpty()) {
+                    continue;
+                }
+                int index = known.indexOf(trimmed);
+                if (index < 0 && skipped.contains(trimmed)) {
+                    continue;
+                }
+                if (index < 0) {
+                    throw new IllegalArgumentException("Unknown field: " + trimmed);
+                }
+                if (!indexes.contains(index)) {
+                    indexes.add(index);
+                }
+            }
+        }
+        for (int index = 0; index < defaults.length; index++) {
+            if (!indexes.contains(index)) {
+                indexes.add(index);
+            }
+        }
+        int[] resolved = new int[indexes.size()];
+        for (int i = 0; i < resolved.length; i++) {
+            resolved[i] = indexes.get(i);
+        }
+        return resolved;
+    }
+}
@@ -0,0 +1,259 @@
+package net.logstash.log4j.encoder;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONObject;
+
+/**
+ * Minimal JSON parser that, unlike {@link JSONObject}, keeps the members of objects
+ * in the order they were read, so that an event can be written back with
+ * {@link JsonWriter} byte for byte.
+ *
+ * Objects are read as {@link LinkedHashMap}, arrays as {@link ArrayList}, integers as
+ * {@link Long} (or {@link BigInteger} if they do not fit), other numbers as
+ * {@link BigDecimal} and {@code null} as {@link JSONObject#NULL}.
+ */
+public final class JsonReader {
+
+    private final CharSequence input;
+
+    private final StringBuilder scratch = new StringBuilder();
+
+    private int position;
+
+    public JsonReader(CharSequence input) {
+        this.input = input;
+    }
+
+    /**
+     * Parses {@code input}, which must hold exactly one JSON value.
+     *
+     * @throws IllegalArgumentException if the input is not valid JSON.
+     */
+    public static Object parse(CharSequence input) {
+        JsonReader reader = new JsonReader(input);
+        Object value = reader.read();
+        reader.skipWhitespace();
+        if (reader.position < input.length()) {
+            throw reader.error("Unexpected trailing characters");
+        }
+        return value;
+    }
+
+    /**
+     * Reads the next value.
+     *
+     * @throws IllegalArgumentException if the input is not valid JSON.
+     */
+    public Object read() {
+        skipWhitespace();
+        if (position >= input.length()) {
+            throw error("Unexpected end of input");
+        }
+        char c = input.charAt(position);
+        switch (c) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                expect("true");
+                return Boolean.TRUE;
+            case 'f':
+                expect("false");
+                return Boolean.FALSE;
+            case 'n':
+                expect("null");
+                return JSONObject.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return readNumber();
+                }
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        position++;
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a member name");
+            }
+            String name = readString();
+            skipWhitespace();
+            if (peek() != ':') {
+                throw error("Expected ':'");
+            }
+            position++;
+            object.put(name, read());
+            skipWhitespace();
+            char c = peek();
+            position++;
+            if (c == '}') {
+                return object;
+            }
+            if (c != ',') {
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        List<Object> array = new ArrayList<>();
+        position++;
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return array;
+        }
+        while (true) {
+            array.add(read());
+            skipWhitespace();
+            char c = peek();
+            position++;
+            if (c == ']') {
+                return array;
+            }
+            if (c != ',') {
+                throw error("Expected ',' or ']'");
+            }
+        }
+    }
+
+    private String readString() {
+        position++;
+        int start = position;
+        while (position < input.length()) {
+            char c = input.charAt(position);
+            if (c == '"') {
+                return input.subSequence(start, position++).toString();
+            }
+            if (c == '\\') {
+                break;
+            }
+            position++;
+        }
+        scratch.setLength(0);
+        scratch.append(input, start, position);
+        while (position < input.length()) {
+            char c = input.charAt(position++);
+            if (c == '"') {
+                return scratch.toString();
+            }
+            if (c != '\\') {
+                scratch.append(c);
+                continue;
+            }
+            if (position >= input.length()) {
+                break;
+            }
+            char escaped = input.charAt(position++);
+            switch (escaped) {
+                case 'b':
+                    scratch.append('\b');
+                    break;
+                case 't':
+                    scratch.append('\t');
+                    break;
+                case 'n':
+                    scratch.append('\n');
+                    break;
+                case 'f':
+                    scratch.append('\f');
+                    break;
+                case 'r':
+                    scratch.append('\r');
+                    break;
+                case 'u':
+                    if (position + 4 > input.length()) {
+                        throw error("Truncated unicode escape");
+                    }
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(input.charAt(position++), 16);
+                        if (digit < 0) {
+                            throw error("Invalid unicode escape");
+                        }
+                        code = (code << 4) | digit;
+                    }
+                    scratch.append((char) code);
+                    break;
+                default:
+                    scratch.append(escaped);
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private Number readNumber() {
+        int start = position;
+        boolean integral = true;
+        if (peek() == '-') {
+            position++;
+        }
+        while (position < input.length()) {
+            char c = input.charAt(position);
+            if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                integral = false;
+            } else if (c < '0' || c > '9') {
+                break;
+            }
+            position++;
+        }
+        String text = input.subSequence(start, position).toString();
+        try {
+            if (integral) {
+                if (position - start < 19) {
+                    return Long.parseLong(text);
+                }
+                BigInteger value = new BigInteger(text);
+                return value.bitLength() < 64 ? (Number) value.longValue() : value;
+            }
+            return new BigDecimal(text);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + text);
+        }
+    }
+
+    private void expect(String literal) {
+        if (position + literal.length() > input.length()
+                || !input.subSequence(position, position + literal.length()).toString().equals(literal)) {
+            throw error("Expected " + literal);
+        }
+        position += literal.length();
+    }
+
+    private char peek() {
+        if (position >= input.length()) {
+            throw error("Unexpected end of input");
+        }
+        return input.charAt(position);
+    }
+
+    private void skipWhitespace() {
+        while (position < input.length()) {
+            char c = input.charAt(position);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position);
+    }
+}
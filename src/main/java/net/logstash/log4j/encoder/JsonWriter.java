@@ -0,0 +1,840 @@
+package net.logstash.log4j.encoder;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Streaming JSON writer that appends directly to a reusable {@link StringBuilder}.
+ *
+ * Once the underlying buffer has grown to fit the largest event it sees, writing
+ * strings, integral numbers, booleans and timestamps does not allocate. Escaping
+ * follows the rules of {@link JSONObject#quote(String)} so the output matches what
+ * the layouts produced when they were built on org.json.
+ */
+public final class JsonWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final int MAX_INSERTION_SORT = 32;
+
+    private StringBuilder buffer;
+
+    private boolean[] hasMembers = new boolean[8];
+
+    private int depth;
+
+    private boolean afterName;
+
+    private int memberBudget;
+
+    private int membersLength;
+
+    private Redactor redactor;
+
+    private Redactor.Matches matches;
+
+    private boolean sortMembers;
+
+    private KeyDictionary dictionary;
+
+    /**
+     * Entries of the maps being written in sorted order, as key/value pairs. Nested
+     * maps stack their entries above those of the map that contains them.
+     */
+    private Object[] sortedMembers = new Object[32];
+
+    private int sortedMembersTop;
+
+    private final BiConsumer<Object, Object> memberWriter = (key, value) -> {
+        if (value != null) {
+            String name = String.valueOf(key);
+            name(memberName(name)).value(maskedValue(name, value));
+        }
+    };
+
+    private final BiConsumer<Object, Object> boundedMemberWriter = (key, value) -> {
+        if (value != null && memberBudget >= 0) {
+            String name = String.valueOf(key);
+            String written = memberName(name);
+            Object masked = maskedValue(name, value);
+            int length = encodedLength(written) + 1 + measure(masked) + (hasMembers[depth - 1] ? 1 : 0);
+            if (length > memberBudget) {
+                memberBudget = -1;
+            } else {
+                memberBudget -= length;
+                name(written).value(masked);
+            }
+        }
+    };
+
+    private final BiConsumer<Object, Object> memberMeasurer = (key, value) -> {
+        if (value != null) {
+            String name = String.valueOf(key);
+            membersLength += (membersLength > 0 ? 1 : 0) + encodedLength(memberName(name)) + 1 + measure(maskedValue(name, value));
+        }
+    };
+
+    private final BiConsumer<Object, Object> memberCollector = (key, value) -> {
+        if (value != null) {
+            if (sortedMembersTop + 2 > sortedMembers.length) {
+                Object[] grown = new Object[sortedMembers.length * 2];
+                System.arraycopy(sortedMembers, 0, grown, 0, sortedMembersTop);
+                sortedMembers = grown;
+            }
+            sortedMembers[sortedMembersTop++] = key;
+            sortedMembers[sortedMembersTop++] = value;
+        }
+    };
+
+    public JsonWriter() {
+        this(256);
+    }
+
+    public JsonWriter(int initialCapacity) {
+        this.buffer = new StringBuilder(initialCapacity);
+    }
+
+    /**
+     * @return the buffer the writer appends to.
+     */
+    public StringBuilder getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Continues writing into {@code replacement} from scratch.
+     *
+     * @return the buffer written to until now.
+     */
+    public StringBuilder swapBuffer(StringBuilder replacement) {
+        StringBuilder previous = buffer;
+        buffer = replacement;
+        reset();
+        return previous;
+    }
+
+    /**
+     * Discards anything written so far while keeping the allocated capacity.
+     */
+    public JsonWriter reset() {
+        buffer.setLength(0);
+        depth = 0;
+        afterName = false;
+        return this;
+    }
+
+    /**
+     * Masks sensitive data in the string values written from now on, until called
+     * again with {@code null}. Member names are never masked.
+     *
+     * @param redactor the redactor to apply, or null to write values as they are.
+     */
+    public JsonWriter redactWith(Redactor redactor) {
+        this.redactor = redactor;
+        if (redactor != null && matches == null) {
+            matches = new Redactor.Matches();
+        }
+        return this;
+    }
+
+    /**
+     * Writes the members of maps sorted by name from now on, so that maps with the
+     * same keys always produce the same bytes whatever their iteration order.
+     *
+     * @param sortMembers true to sort members, false to keep the map's order.
+     */
+    public JsonWriter sortMembers(boolean sortMembers) {
+        this.sortMembers = sortMembers;
+        return this;
+    }
+
+    /**
+     * Replaces the names of map members written from now on by their reference in
+     * {@code dictionary}, until called again with {@code null}.
+     *
+     * @param dictionary the dictionary to abbreviate with, or null to write names in full.
+     */
+    public JsonWriter abbreviateWith(KeyDictionary dictionary) {
+        this.dictionary = dictionary;
+        return this;
+    }
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        buffer.append('{');
+        push();
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        depth--;
+        buffer.append('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        buffer.append('[');
+        push();
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        depth--;
+        buffer.append(']');
+        return this;
+    }
+
+    public JsonWriter name(CharSequence name) {
+        beforeValue();
+        quote(name, 0, name.length());
+        buffer.append(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(CharSequence value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        if (redact(value)) {
+            buffer.append('"');
+            escape(value, 0, value.length(), Integer.MAX_VALUE, true);
+            buffer.append('"');
+        } else {
+            quote(value, 0, value.length());
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        buffer.append(value);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        buffer.append(value);
+        return this;
+    }
+
+    public JsonWriter nullValue() {
+        beforeValue();
+        buffer.append("null");
+        return this;
+    }
+
+    /**
+     * Writes the entries of {@code map} with a non-null value as members of the
+     * current object. Iterates with {@link Map#forEach}, which {@link java.util.Hashtable}
+     * and {@link java.util.HashMap} implement without allocating an iterator.
+     */
+    public JsonWriter members(Map<?, ?> map) {
+        forEachMember(map, memberWriter);
+        return this;
+    }
+
+    /**
+     * Like {@link #members(Map)}, but stops before the first member that would take the
+     * members past {@code maxBytes} UTF-8 bytes, separating commas included.
+     */
+    public JsonWriter members(Map<?, ?> map, int maxBytes) {
+        memberBudget = maxBytes;
+        forEachMember(map, boundedMemberWriter);
+        return this;
+    }
+
+    /**
+     * @return the number of UTF-8 bytes {@link #members(Map)} would write for {@code map}.
+     */
+    public int membersLength(Map<?, ?> map) {
+        int outer = membersLength;
+        membersLength = 0;
+        forEachMember(map, memberMeasurer);
+        int length = membersLength;
+        membersLength = outer;
+        return length;
+    }
+
+    /**
+     * Passes the entries of {@code map} to {@code action}, sorted by name if
+     * {@link #sortMembers(boolean)} is set. Up to a few dozen entries are sorted in
+     * place in a reusable array, so sorting a typical MDC does not allocate.
+     */
+    private void forEachMember(Map<?, ?> map, BiConsumer<Object, Object> action) {
+        if (!sortMembers || map.size() < 2) {
+            map.forEach(action);
+            return;
+        }
+        int base = sortedMembersTop;
+        map.forEach(memberCollector);
+        int end = sortedMembersTop;
+        if (end - base > 2 * MAX_INSERTION_SORT) {
+            sortLarge(base, end);
+        } else {
+            for (int i = base + 2; i < end; i += 2) {
+                Object key = sortedMembers[i];
+                Object value = sortedMembers[i + 1];
+                String name = String.valueOf(key);
+                int j = i - 2;
+                while (j >= base && String.valueOf(sortedMembers[j]).compareTo(name) > 0) {
+                    sortedMembers[j + 2] = sortedMembers[j];
+                    sortedMembers[j + 3] = sortedMembers[j + 1];
+                    j -= 2;
+                }
+                sortedMembers[j + 2] = key;
+                sortedMembers[j + 3] = value;
+            }
+        }
+        try {
+            for (int i = base; i < end; i += 2) {
+                action.accept(sortedMembers[i], sortedMembers[i + 1]);
+            }
+        } finally {
+            Arrays.fill(sortedMembers, base, end, null);
+            sortedMembersTop = base;
+        }
+    }
+
+    private void sortLarge(int base, int end) {
+        Object[][] pairs = new Object[(end - base) / 2][];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = new Object[]{sortedMembers[base + 2 * i], sortedMembers[base + 2 * i + 1]};
+        }
+        Arrays.sort(pairs, (a, b) -> String.valueOf(a[0]).compareTo(String.valueOf(b[0])));
+        for (int i = 0; i < pairs.length; i++) {
+            sortedMembers[base + 2 * i] = pairs[i][0];
+            sortedMembers[base + 2 * i + 1] = pairs[i][1];
+        }
+    }
+
+    /**
+     * Writes as much of the string as fits in {@code maxBytes} UTF-8 bytes, quotes
+     * included. Truncation never splits an escape sequence or a surrogate pair.
+     */
+    public JsonWriter value(CharSequence value, int maxBytes) {
+        beforeValue();
+        buffer.append('"');
+        escape(value, 0, value.length(), maxBytes - 2, redact(value));
+        buffer.append('"');
+        return this;
+    }
+
+    /**
+     * Writes the lines joined by a newline as a single string value, without
+     * building the joined string first.
+     */
+    public JsonWriter joinedValue(String[] lines) {
+        beforeValue();
+        buffer.append('"');
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) {
+                buffer.append("\\n");
+            }
+            if (lines[i] == null) {
+                buffer.append("null");
+            } else if (redact(lines[i])) {
+                escape(lines[i], 0, lines[i].length(), Integer.MAX_VALUE, true);
+            } else {
+                escape(lines[i], 0, lines[i].length());
+            }
+        }
+        buffer.append('"');
+        return this;
+    }
+
+    /**
+     * Like {@link #joinedValue(String[])}, truncated to {@code maxBytes} UTF-8 bytes
+     * the same way as {@link #value(CharSequence, int)}.
+     */
+    public JsonWriter joinedValue(String[] lines, int maxBytes) {
+        beforeValue();
+        buffer.append('"');
+        int remaining = maxBytes - 2;
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) {
+                if (remaining < 2) {
+                    break;
+                }
+                buffer.append("\\n");
+                remaining -= 2;
+            }
+            String line = lines[i] != null ? lines[i] : "null";
+            int full = measure(line) - 2;
+            int written = escape(line, 0, line.length(), remaining, redact(line));
+            remaining -= written;
+            if (written < full) {
+                break;
+            }
+        }
+        buffer.append('"');
+        return this;
+    }
+
+    /**
+     * Writes {@code value} as a string of 16 lowercase hex digits, zero-padded.
+     */
+    public JsonWriter hexValue(long value) {
+        beforeValue();
+        buffer.append('"');
+        appendHex(value);
+        buffer.append('"');
+        return this;
+    }
+
+    /**
+     * Writes the 128-bit value {@code high}{@code low} as a string of 32 lowercase hex digits.
+     */
+    public JsonWriter hexValue(long high, long low) {
+        beforeValue();
+        buffer.append('"');
+        appendHex(high);
+        appendHex(low);
+        buffer.append('"');
+        return this;
+    }
+
+    private void appendHex(long value) {
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            buffer.append(HEX[(int) (value >>> shift) & 0xF]);
+        }
+    }
+
+    /**
+     * Writes the timestamp as an ISO-8601 UTC string with millisecond precision,
+     * e.g. {@code 2013-04-01T19:36:31.207Z}.
+     */
+    public JsonWriter timestampValue(long epochMillis) {
+        beforeValue();
+        buffer.append('"');
+        appendTimestamp(buffer, epochMillis);
+        buffer.append('"');
+        return this;
+    }
+
+    /**
+     * Writes an arbitrary value the way {@link JSONObject#wrap(Object)} would render it:
+     * maps become objects, collections and arrays become arrays, numbers and booleans
+     * are written bare and everything else falls back to org.json. The common types
+     * are handled without touching org.json, so that its classes are only loaded once
+     * an event actually needs them.
+     */
+    public JsonWriter value(Object value) {
+        if (value == null) {
+            return nullValue();
+        }
+        if (value instanceof CharSequence) {
+            return value((CharSequence) value);
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        }
+        if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        }
+        if (value instanceof Number) {
+            beforeValue();
+            Number number = (Number) value;
+            if (!isFinite(number)) {
+                quote(number.toString());
+            } else {
+                buffer.append(JSONObject.numberToString(number));
+            }
+            return this;
+        }
+        if (value instanceof Map) {
+            return beginObject().members((Map<?, ?>) value).endObject();
+        }
+        if (value instanceof Collection) {
+            beginArray();
+            for (Object element : (Collection<?>) value) {
+                value(element);
+            }
+            return endArray();
+        }
+        if (value.getClass().isArray()) {
+            beginArray();
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                value(Array.get(value, i));
+            }
+            return endArray();
+        }
+        if (value == JSONObject.NULL) {
+            return nullValue();
+        }
+        Object wrapped = JSONObject.wrap(value);
+        if (wrapped instanceof JSONObject || wrapped instanceof JSONArray) {
+            beforeValue();
+            buffer.append(wrapped.toString());
+            return this;
+        }
+        return value(String.valueOf(value));
+    }
+
+    /**
+     * @return the number of UTF-8 bytes written so far.
+     */
+    public int byteLength() {
+        int length = 0;
+        for (int i = 0; i < buffer.length(); i++) {
+            length += utf8Length(buffer.charAt(i));
+        }
+        return length;
+    }
+
+    /**
+     * @return the number of UTF-8 bytes {@link #value(CharSequence)} writes for {@code value}.
+     */
+    public static int encodedLength(CharSequence value) {
+        int length = 2;
+        char previous = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += escapedLength(c, previous);
+            previous = c;
+        }
+        return length;
+    }
+
+    /**
+     * @return the number of UTF-8 bytes {@link #value(CharSequence)} writes for
+     *         {@code value}, taking the current redactor into account.
+     */
+    public int measure(CharSequence value) {
+        if (!redact(value)) {
+            return encodedLength(value);
+        }
+        int length = 2;
+        int maskLength = encodedLength(redactor.mask()) - 2;
+        int next = 0;
+        char previous = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (next < matches.count() && i == matches.start(next)) {
+                length += maskLength;
+                i = matches.end(next++) - 1;
+                previous = lastChar(redactor.mask(), previous);
+                continue;
+            }
+            char c = value.charAt(i);
+            length += escapedLength(c, previous);
+            previous = c;
+        }
+        return length;
+    }
+
+    /**
+     * @return the number of UTF-8 bytes {@link #joinedValue(String[])} writes for {@code lines}.
+     */
+    public int measure(String[] lines) {
+        int length = 2;
+        for (int i = 0; i < lines.length; i++) {
+            length += (i > 0 ? 2 : 0) + measure(lines[i] != null ? lines[i] : "null") - 2;
+        }
+        return length;
+    }
+
+    /**
+     * @return the number of UTF-8 bytes {@link #value(Object)} writes for {@code value}.
+     */
+    public int measure(Object value) {
+        if (value == null) {
+            return 4;
+        }
+        if (value instanceof CharSequence) {
+            return measure((CharSequence) value);
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return digits(((Number) value).longValue());
+        }
+        if (value instanceof Boolean) {
+            return ((Boolean) value) ? 4 : 5;
+        }
+        if (value instanceof Map) {
+            return 2 + membersLength((Map<?, ?>) value);
+        }
+        if (value instanceof Collection) {
+            int length = 2;
+            int elements = 0;
+            for (Object element : (Collection<?>) value) {
+                length += (elements++ > 0 ? 1 : 0) + measure(element);
+            }
+            return length;
+        }
+        if (value.getClass().isArray()) {
+            int length = 2;
+            for (int i = 0; i < Array.getLength(value); i++) {
+                length += (i > 0 ? 1 : 0) + measure(Array.get(value, i));
+            }
+            return length;
+        }
+        if (value == JSONObject.NULL) {
+            return 4;
+        }
+        return new JsonWriter().redactWith(redactor).value(value).byteLength();
+    }
+
+    private static int digits(long value) {
+        int length = value < 0 ? 2 : 1;
+        for (long remaining = Math.abs(value / 10); remaining > 0; remaining /= 10) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Appends {@code epochMillis} as {@code yyyy-MM-dd'T'HH:mm:ss.SSS'Z'} in UTC.
+     */
+    public static void appendTimestamp(StringBuilder out, long epochMillis) {
+        long epochSecond = Math.floorDiv(epochMillis, 1000L);
+        int millis = (int) Math.floorMod(epochMillis, 1000L);
+        long epochDay = Math.floorDiv(epochSecond, 86400L);
+        int secondOfDay = (int) Math.floorMod(epochSecond, 86400L);
+
+        // Civil-from-days, see http://howardhinnant.github.io/date_algorithms.html
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year >= 0 && year < 10000) {
+            appendPadded(out, (int) year, 4);
+        } else {
+            out.append(year);
+        }
+        out.append('-');
+        appendPadded(out, month, 2);
+        out.append('-');
+        appendPadded(out, day, 2);
+        out.append('T');
+        appendPadded(out, secondOfDay / 3600, 2);
+        out.append(':');
+        appendPadded(out, (secondOfDay / 60) % 60, 2);
+        out.append(':');
+        appendPadded(out, secondOfDay % 60, 2);
+        out.append('.');
+        appendPadded(out, millis, 3);
+        out.append('Z');
+    }
+
+    private static void appendPadded(StringBuilder out, int value, int width) {
+        for (int limit = 10, i = 1; i < width; i++, limit *= 10) {
+            if (value < limit) {
+                out.append('0');
+            }
+        }
+        out.append(value);
+    }
+
+    private static boolean isFinite(Number number) {
+        if (number instanceof Double) {
+            return !((Double) number).isNaN() && !((Double) number).isInfinite();
+        }
+        if (number instanceof Float) {
+            return !((Float) number).isNaN() && !((Float) number).isInfinite();
+        }
+        return true;
+    }
+
+    private void quote(CharSequence value) {
+        quote(value, 0, value.length());
+    }
+
+    private void quote(CharSequence value, int start, int end) {
+        buffer.append('"');
+        escape(value, start, end);
+        buffer.append('"');
+    }
+
+    private void escape(CharSequence value, int start, int end) {
+        char previous = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            appendEscaped(c, previous);
+            previous = c;
+        }
+    }
+
+    /**
+     * Escapes as much of the value as fits in {@code maxBytes} UTF-8 bytes, never
+     * splitting an escape sequence, a surrogate pair or a mask. With {@code redacted},
+     * the sections found by the last {@link #redact(CharSequence)} are replaced by the mask.
+     *
+     * @return the number of bytes written.
+     */
+    private int escape(CharSequence value, int start, int end, int maxBytes, boolean redacted) {
+        int used = 0;
+        int next = 0;
+        char previous = 0;
+        for (int i = start; i < end; i++) {
+            if (redacted && next < matches.count() && i == matches.start(next)) {
+                String mask = redactor.mask();
+                int length = encodedLength(mask) - 2;
+                if (used + length > maxBytes) {
+                    break;
+                }
+                escape(mask, 0, mask.length());
+                used += length;
+                i = matches.end(next++) - 1;
+                previous = lastChar(mask, previous);
+                continue;
+            }
+            char c = value.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))
+                    && !(redacted && next < matches.count() && i + 1 == matches.start(next))) {
+                if (used + 4 > maxBytes) {
+                    break;
+                }
+                previous = value.charAt(++i);
+                buffer.append(c).append(previous);
+                used += 4;
+                continue;
+            }
+            int length = escapedLength(c, previous);
+            if (used + length > maxBytes) {
+                break;
+            }
+            appendEscaped(c, previous);
+            used += length;
+            previous = c;
+        }
+        return used;
+    }
+
+    /**
+     * Looks for sensitive sections in {@code value} if a redactor is set.
+     *
+     * @return true if any were found.
+     */
+    private boolean redact(CharSequence value) {
+        if (redactor == null) {
+            return false;
+        }
+        redactor.find(value, matches);
+        return matches.count() > 0;
+    }
+
+    private static char lastChar(String value, char fallback) {
+        return value.isEmpty() ? fallback : value.charAt(value.length() - 1);
+    }
+
+    private String memberName(String name) {
+        return dictionary != null ? dictionary.abbreviate(name) : name;
+    }
+
+    private Object maskedValue(String name, Object value) {
+        return redactor != null && redactor.masksKey(name) ? redactor.mask() : value;
+    }
+
+    private void appendEscaped(char c, char previous) {
+        switch (c) {
+            case '"':
+            case '\\':
+                buffer.append('\\').append(c);
+                break;
+            case '/':
+                if (previous == '<') {
+                    buffer.append('\\');
+                }
+                buffer.append(c);
+                break;
+            case '\b':
+                buffer.append("\\b");
+                break;
+            case '\t':
+                buffer.append("\\t");
+                break;
+            case '\n':
+                buffer.append("\\n");
+                break;
+            case '\f':
+                buffer.append("\\f");
+                break;
+            case '\r':
+                buffer.append("\\r");
+                break;
+            default:
+                if (needsUnicodeEscape(c)) {
+                    buffer.append("\\u")
+                            .append(HEX[(c >> 12) & 0xF])
+                            .append(HEX[(c >> 8) & 0xF])
+                            .append(HEX[(c >> 4) & 0xF])
+                            .append(HEX[c & 0xF]);
+                } else {
+                    buffer.append(c);
+                }
+        }
+    }
+
+    /**
+     * @return the number of UTF-8 bytes {@link #appendEscaped(char, char)} produces for
+     *         {@code c}. Each half of a surrogate pair counts for two bytes.
+     */
+    private static int escapedLength(char c, char previous) {
+        switch (c) {
+            case '"':
+            case '\\':
+            case '\b':
+            case '\t':
+            case '\n':
+            case '\f':
+            case '\r':
+                return 2;
+            case '/':
+                return previous == '<' ? 2 : 1;
+            default:
+                if (needsUnicodeEscape(c)) {
+                    return 6;
+                }
+                return utf8Length(c);
+        }
+    }
+
+    private static int utf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        }
+        if (c < 0x800 || Character.isSurrogate(c)) {
+            return 2;
+        }
+        return 3;
+    }
+
+    private static boolean needsUnicodeEscape(char c) {
+        return c < ' ' || (c >= 0x80 && c < 0xa0) || (c >= 0x2000 && c < 0x2100);
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasMembers[depth - 1]) {
+                buffer.append(',');
+            }
+            hasMembers[depth - 1] = true;
+        }
+    }
+
+    private void push() {
+        if (depth == hasMembers.length) {
+            boolean[] grown = new boolean[depth * 2];
+            System.arraycopy(hasMembers, 0, grown, 0, depth);
+            hasMembers = grown;
+        }
+        hasMembers[depth++] = false;
+    }
+}
@@ -0,0 +1,102 @@
+package net.logstash.log4j.encoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns short references to frequently repeated strings, such as logger names and
+ * MDC keys, so that events can carry {@code #12} instead of the full string.
+ *
+ * The references are defined by header lines of the form
+ * {@code {"@dictionary":{"12":"org.example.OrderService"}}}. A header with the new
+ * entries precedes the first event that uses them, and a header with every entry is
+ * repeated every {@code refreshInterval} events so that a reader can start decoding
+ * from any refresh, e.g. after the file was rotated. Strings that really start with
+ * {@code #} are written with the {@code #} doubled. See {@link DictionaryDecoder}.
+ *
+ * Headers only precede their first use if events are written in the order they were
+ * encoded, so a dictionary must not be shared by independent appenders.
+ */
+public final class KeyDictionary {
+
+    public static final String HEADER_KEY = "@dictionary";
+
+    public static final char REFERENCE_PREFIX = '#';
+
+    private final ConcurrentHashMap<String, String> references = new ConcurrentHashMap<>();
+
+    private final List<String> entries = new ArrayList<>();
+
+    private final int capacity;
+
+    private final int refreshInterval;
+
+    private int published;
+
+    private long events;
+
+    /**
+     * @param capacity the maximum number of entries; further strings are written in full.
+     * @param refreshInterval the number of events between two full headers.
+     */
+    public KeyDictionary(int capacity, int refreshInterval) {
+        this.capacity = capacity;
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * @return the reference for {@code value}, adding it to the dictionary if there is
+     *         room, or {@code value} itself, escaped if it starts with {@code #}.
+     */
+    public String abbreviate(String value) {
+        String reference = references.get(value);
+        if (reference != null) {
+            return reference;
+        }
+        synchronized (this) {
+            reference = references.get(value);
+            if (reference == null && entries.size() < capacity) {
+                entries.add(value);
+                reference = REFERENCE_PREFIX + Integer.toString(entries.size());
+                references.put(value, reference);
+            }
+        }
+        if (reference != null) {
+            return reference;
+        }
+        return !value.isEmpty() && value.charAt(0) == REFERENCE_PREFIX ? REFERENCE_PREFIX + value : value;
+    }
+
+    /**
+     * Counts an event and writes the header it needs, if any, as a complete line.
+     *
+     * @return true if a header was written.
+     */
+    public synchronized boolean writeHeader(JsonWriter writer) {
+        events++;
+        int from;
+        if (refreshInterval > 0 && events % refreshInterval == 0) {
+            from = 0;
+        } else if (published < entries.size()) {
+            from = published;
+        } else {
+            return false;
+        }
+        writer.beginObject().name(HEADER_KEY).beginObject();
+        for (int i = from; i < entries.size(); i++) {
+            writer.name(Integer.toString(i + 1)).value(entries.get(i));
+        }
+        writer.endObject().endObject();
+        writer.getBuffer().append('\n');
+        published = entries.size();
+        return true;
+    }
+
+    /**
+     * @return the number of strings in the dictionary.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
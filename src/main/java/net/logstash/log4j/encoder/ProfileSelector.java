@@ -0,0 +1,206 @@
+package net.logstash.log4j.encoder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Level;
+
+/**
+ * Selects the set of fields written for an event by its level and logger name.
+ *
+ * Profiles are defined as {@code name=field,field,...} entries separated by
+ * semicolons, {@code *} standing for every field. Rules are {@code LEVEL:prefix=profile}
+ * entries separated by semicolons, where the level may be {@code *} and the prefix may
+ * be left out to match every logger. A prefix matches the logger of that name and its
+ * descendants, as in log4j's hierarchy. The rule with the longest matching prefix wins,
+ * and among rules for the same prefix one for the event's level beats one for {@code *}.
+ *
+ * The prefixes are kept in a trie of logger name segments. What a logger name resolves
+ * to for each level is cached, so selecting a profile costs one map lookup per event.
+ */
+public final class ProfileSelector {
+
+    /**
+     * The levels rules can name, in the order of their slots in a resolved entry.
+     */
+    private static final Level[] LEVELS = {Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR, Level.FATAL};
+
+    /**
+     * The slot for levels that are not in {@link #LEVELS}, which only {@code *} rules match.
+     */
+    private static final int OTHER_LEVEL = LEVELS.length;
+
+    /**
+     * Logger names beyond this many are resolved without being cached.
+     */
+    private static final int MAX_CACHED_LOGGERS = 16384;
+
+    private final Node root = new Node();
+
+    private final ConcurrentHashMap<String, Profile[]> cache = new ConcurrentHashMap<>();
+
+    private ProfileSelector() {
+    }
+
+    /**
+     * @param profiles the profile definitions.
+     * @param rules the rules selecting them.
+     * @param fields the names of the fields a profile may list.
+     * @throws IllegalArgumentException if a definition or rule is malformed, or refers
+     *         to an unknown field, level or profile.
+     */
+    public static ProfileSelector parse(String profiles, String rules, String[] fields) {
+        Map<String, Profile> byName = new HashMap<>();
+        for (String definition : entries(profiles)) {
+            String[] parts = definition.split("=", 2);
+            if (parts.length != 2 || parts[0].trim().isEmpty()) {
+                throw new IllegalArgumentException("Malformed profile: " + definition);
+            }
+            String name = parts[0].trim();
+            byName.put(name, new Profile(name, parts[1], fields));
+        }
+
+        ProfileSelector selector = new ProfileSelector();
+        for (String rule : entries(rules)) {
+            String[] parts = rule.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Malformed profile rule: " + rule);
+            }
+            Profile profile = byName.get(parts[1].trim());
+            if (profile == null) {
+                throw new IllegalArgumentException("Unknown profile: " + parts[1].trim());
+            }
+            String[] selectorParts = parts[0].split(":", 2);
+            String level = selectorParts[0].trim();
+            String prefix = selectorParts.length > 1 ? selectorParts[1].trim() : "";
+            Node node = selector.root;
+            if (!prefix.isEmpty()) {
+                for (String segment : prefix.split("\\.")) {
+                    node = node.children.computeIfAbsent(segment, s -> new Node());
+                }
+            }
+            if ("*".equals(level)) {
+                node.anyLevel = profile;
+            } else {
+                node.byLevel[slot(parseLevel(level))] = profile;
+            }
+        }
+        return selector;
+    }
+
+    /**
+     * @return the profile for an event of {@code level} logged by {@code loggerName},
+     *         or null if no rule matches.
+     */
+    public Profile select(String loggerName, Level level) {
+        String key = loggerName != null ? loggerName : "";
+        Profile[] resolved = cache.get(key);
+        if (resolved == null) {
+            resolved = resolve(key);
+            if (cache.size() < MAX_CACHED_LOGGERS) {
+                cache.put(key, resolved);
+            }
+        }
+        return resolved[slot(level)];
+    }
+
+    /**
+     * Walks the trie along the segments of {@code loggerName}, keeping the most
+     * specific profile seen for each level slot.
+     */
+    private Profile[] resolve(String loggerName) {
+        Profile[] resolved = new Profile[OTHER_LEVEL + 1];
+        Node node = root;
+        int start = 0;
+        while (node != null) {
+            for (int slot = 0; slot < resolved.length; slot++) {
+                Profile profile = slot < OTHER_LEVEL && node.byLevel[slot] != null ? node.byLevel[slot] : node.anyLevel;
+                if (profile != null) {
+                    resolved[slot] = profile;
+                }
+            }
+            if (start > loggerName.length()) {
+                break;
+            }
+            int end = loggerName.indexOf('.', start);
+            if (end < 0) {
+                end = loggerName.length();
+            }
+            node = node.children.get(loggerName.substring(start, end));
+            start = end + 1;
+        }
+        return resolved;
+    }
+
+    private static int slot(Level level) {
+        for (int slot = 0; slot < LEVELS.length; slot++) {
+            if (LEVELS[slot].toInt() == level.toInt()) {
+                return slot;
+            }
+        }
+        return OTHER_LEVEL;
+    }
+
+    private static Level parseLevel(String name) {
+        for (Level level : LEVELS) {
+            if (level.toString().equalsIgnoreCase(name)) {
+                return level;
+            }
+        }
+        throw new IllegalArgumentException("Unknown level: " + name);
+    }
+
+    private static String[] entries(String list) {
+        if (list == null || list.trim().isEmpty()) {
+            return new String[0];
+        }
+        return list.trim().split("\\s*;\\s*");
+    }
+
+    /**
+     * A named set of fields.
+     */
+    public static final class Profile {
+        private final String name;
+        private final boolean[] includes;
+
+        Profile(String name, String fieldList, String[] fields) {
+            this.name = name;
+            this.includes = new boolean[fields.length];
+            List<String> known = Arrays.asList(fields);
+            for (String field : fieldList.split(",")) {
+                String trimmed = field.trim();
+                if ("*".equals(trimmed)) {
+                    Arrays.fill(includes, true);
+                } else if (!trimmed.isEmpty()) {
+                    int index = known.indexOf(trimmed);
+                    if (index < 0) {
+                        throw new IllegalArgumentException("Unknown field " + trimmed + " in profile " + name);
+                    }
+                    includes[index] = true;
+                }
+            }
+        }
+
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @param field the index of the field in the names the profile was parsed with.
+         * @return true if the field is written.
+         */
+        public boolean includes(int field) {
+            return includes[field];
+        }
+    }
+
+    private static final class Node {
+        final Map<String, Node> children = new LinkedHashMap<>();
+        final Profile[] byLevel = new Profile[OTHER_LEVEL];
+        Profile anyLevel;
+    }
+}
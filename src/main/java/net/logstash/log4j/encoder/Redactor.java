@@ -0,0 +1,378 @@
+package net.logstash.log4j.encoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Masks sensitive data in string values while they are being escaped.
+ *
+ * All configured literals are compiled into one Aho-Corasick automaton, and the
+ * built-in detectors for card numbers and email addresses run in the same forward
+ * pass over the value. Custom regular expressions are combined into a single
+ * alternation, so each value is matched against them once. MDC entries whose key is
+ * configured as sensitive are masked as a whole.
+ *
+ * A redactor is immutable and may be shared between threads. The mutable state of a
+ * scan lives in {@link Matches}, which each {@link JsonWriter} keeps for itself.
+ */
+public final class Redactor {
+
+    public static final String DEFAULT_MASK = "****";
+
+    public static final String CARD = "card";
+    public static final String EMAIL = "email";
+
+    private final String mask;
+
+    private final AhoCorasick literals;
+
+    private final boolean cards;
+
+    private final boolean emails;
+
+    private final Pattern pattern;
+
+    private final Set<String> keys;
+
+    private Redactor(Builder builder) {
+        this.mask = builder.mask;
+        this.literals = builder.literals.isEmpty() ? null : new AhoCorasick(builder.literals);
+        this.cards = builder.cards;
+        this.emails = builder.emails;
+        this.pattern = builder.patterns.isEmpty() ? null : Pattern.compile(String.join("|", builder.patterns));
+        this.keys = builder.keys;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the text that replaces each sensitive section.
+     */
+    public String mask() {
+        return mask;
+    }
+
+    /**
+     * @return true if values stored under {@code key} are masked as a whole.
+     */
+    public boolean masksKey(String key) {
+        return keys.contains(key);
+    }
+
+    /**
+     * Finds the sensitive sections of {@code value}.
+     *
+     * @param value the value to scan.
+     * @param matches receives the sections, sorted and without overlaps.
+     */
+    public void find(CharSequence value, Matches matches) {
+        matches.count = 0;
+        if (literals != null) {
+            literals.find(value, matches);
+        }
+        if (cards || emails) {
+            scan(value, matches);
+        }
+        if (pattern != null) {
+            Matcher matcher = matches.matcher(pattern, value);
+            while (matcher.find()) {
+                if (matcher.end() > matcher.start()) {
+                    matches.add(matcher.start(), matcher.end());
+                }
+            }
+        }
+        matches.normalize();
+    }
+
+    private void scan(CharSequence value, Matches matches) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (cards && isDigit(c) && (i == 0 || !isWordChar(value.charAt(i - 1)))) {
+                i = scanCard(value, i, matches);
+            } else if (emails && c == '@') {
+                scanEmail(value, i, matches);
+            }
+        }
+    }
+
+    /**
+     * Matches a run of 13 to 19 digits, optionally grouped by single spaces or dashes,
+     * that stands on its own, has the length and leading digits of a card issued by
+     * one of the major networks and passes the Luhn check. Identifiers, timestamps and
+     * decimals that happen to pass the Luhn check are left alone.
+     *
+     * @return the index of the last character of the run.
+     */
+    private static int scanCard(CharSequence value, int start, Matches matches) {
+        int digits = 0;
+        int sum = 0;
+        int end = start;
+        int i = start;
+        int[] scratch = matches.digits;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            if (isDigit(c)) {
+                if (digits == scratch.length) {
+                    digits++;
+                    break;
+                }
+                scratch[digits++] = c - '0';
+                end = ++i;
+            } else if ((c == ' ' || c == '-') && i + 1 < value.length() && isDigit(value.charAt(i + 1))) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        boolean bounded = end == value.length() || !isWordChar(value.charAt(end))
+                && !(value.charAt(end) == '.' && end + 1 < value.length() && isDigit(value.charAt(end + 1)));
+        if (digits >= 13 && digits <= 19 && bounded && isIssued(scratch, digits)) {
+            for (int d = 0; d < digits; d++) {
+                int digit = scratch[digits - 1 - d];
+                if (d % 2 == 1) {
+                    digit *= 2;
+                    if (digit > 9) {
+                        digit -= 9;
+                    }
+                }
+                sum += digit;
+            }
+            if (sum % 10 == 0) {
+                matches.add(start, end);
+            }
+        }
+        return end - 1;
+    }
+
+    /**
+     * @return true if a card number of {@code digits} digits may start with the leading
+     *         digits in {@code number}: Visa, Mastercard, American Express, Discover,
+     *         Diners Club, JCB and UnionPay.
+     */
+    private static boolean isIssued(int[] number, int digits) {
+        int two = number[0] * 10 + number[1];
+        int three = two * 10 + number[2];
+        int four = three * 10 + number[3];
+        switch (number[0]) {
+            case 2:
+                return digits == 16 && four >= 2221 && four <= 2720;
+            case 3:
+                if (two == 34 || two == 37) {
+                    return digits == 15;
+                }
+                if (four >= 3528 && four <= 3589) {
+                    return digits >= 16;
+                }
+                return digits >= 14 && ((three >= 300 && three <= 305) || two == 36 || two == 38 || two == 39);
+            case 4:
+                return digits == 13 || digits == 16 || digits == 19;
+            case 5:
+                return digits == 16 && two >= 51 && two <= 55;
+            case 6:
+                return digits >= 16 && (four == 6011 || (three >= 644 && three <= 649) || two == 65 || two == 62);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Matches {@code local@domain.tld} around the {@code @} at {@code at}.
+     */
+    private static void scanEmail(CharSequence value, int at, Matches matches) {
+        int start = at;
+        while (start > 0 && isLocalPart(value.charAt(start - 1))) {
+            start--;
+        }
+        int end = at + 1;
+        int lastDot = -1;
+        while (end < value.length() && isDomain(value.charAt(end))) {
+            if (value.charAt(end) == '.') {
+                lastDot = end;
+            }
+            end++;
+        }
+        while (end > at + 1 && value.charAt(end - 1) == '.') {
+            end--;
+            lastDot = -1;
+            for (int i = at + 1; i < end; i++) {
+                if (value.charAt(i) == '.') {
+                    lastDot = i;
+                }
+            }
+        }
+        if (start < at && lastDot > at + 1 && end - lastDot > 2) {
+            matches.add(start, end);
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * ASCII word characters only, as in {@code \w}, so that a card number written
+     * directly against CJK or accented text is still found.
+     */
+    private static boolean isWordChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || isDigit(c) || c == '_';
+    }
+
+    private static boolean isLocalPart(char c) {
+        return isDomain(c) || c == '_' || c == '%' || c == '+';
+    }
+
+    private static boolean isDomain(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '.' || c == '-';
+    }
+
+    /**
+     * Reusable result of {@link #find(CharSequence, Matches)}: the start (inclusive)
+     * and end (exclusive) of each sensitive section.
+     */
+    public static final class Matches {
+        private int[] starts = new int[8];
+        private int[] ends = new int[8];
+        private int count;
+        private final int[] digits = new int[19];
+        private Pattern pattern;
+        private Matcher matcher;
+
+        public int count() {
+            return count;
+        }
+
+        public int start(int index) {
+            return starts[index];
+        }
+
+        public int end(int index) {
+            return ends[index];
+        }
+
+        void add(int start, int end) {
+            if (count == starts.length) {
+                int[] grownStarts = new int[count * 2];
+                int[] grownEnds = new int[count * 2];
+                System.arraycopy(starts, 0, grownStarts, 0, count);
+                System.arraycopy(ends, 0, grownEnds, 0, count);
+                starts = grownStarts;
+                ends = grownEnds;
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+
+        Matcher matcher(Pattern pattern, CharSequence value) {
+            if (this.pattern != pattern) {
+                this.pattern = pattern;
+                this.matcher = pattern.matcher(value);
+            } else {
+                matcher.reset(value);
+            }
+            return matcher;
+        }
+
+        /**
+         * Sorts the sections by start and merges those that overlap.
+         */
+        void normalize() {
+            for (int i = 1; i < count; i++) {
+                int start = starts[i];
+                int end = ends[i];
+                int j = i - 1;
+                while (j >= 0 && starts[j] > start) {
+                    starts[j + 1] = starts[j];
+                    ends[j + 1] = ends[j];
+                    j--;
+                }
+                starts[j + 1] = start;
+                ends[j + 1] = end;
+            }
+            int merged = 0;
+            for (int i = 0; i < count; i++) {
+                if (merged > 0 && starts[i] <= ends[merged - 1]) {
+                    ends[merged - 1] = Math.max(ends[merged - 1], ends[i]);
+                } else {
+                    starts[merged] = starts[i];
+                    ends[merged] = ends[i];
+                    merged++;
+                }
+            }
+            count = merged;
+        }
+    }
+
+    public static final class Builder {
+        private String mask = DEFAULT_MASK;
+        private final List<String> literals = new ArrayList<>();
+        private final List<String> patterns = new ArrayList<>();
+        private final Set<String> keys = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        private boolean cards;
+        private boolean emails;
+
+        private Builder() {
+        }
+
+        public Builder mask(String mask) {
+            this.mask = mask;
+            return this;
+        }
+
+        /**
+         * Masks every occurrence of {@code literal}.
+         */
+        public Builder literal(String literal) {
+            if (!literal.isEmpty()) {
+                literals.add(literal);
+            }
+            return this;
+        }
+
+        /**
+         * Enables a built-in detector, {@value #CARD} or {@value #EMAIL}.
+         *
+         * @throws IllegalArgumentException if there is no detector by that name.
+         */
+        public Builder builtin(String name) {
+            if (CARD.equalsIgnoreCase(name)) {
+                cards = true;
+            } else if (EMAIL.equalsIgnoreCase(name)) {
+                emails = true;
+            } else {
+                throw new IllegalArgumentException("Unknown redaction pattern: " + name);
+            }
+            return this;
+        }
+
+        /**
+         * Masks every match of the regular expression.
+         *
+         * @throws java.util.regex.PatternSyntaxException if the expression is invalid.
+         */
+        public Builder regex(String regex) {
+            Pattern.compile(regex);
+            patterns.add("(?:" + regex + ")");
+            return this;
+        }
+
+        /**
+         * Masks the whole value of MDC entries named {@code key}, ignoring case.
+         */
+        public Builder key(String key) {
+            keys.add(key);
+            return this;
+        }
+
+        public Redactor build() {
+            return new Redactor(this);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package net.logstash.log4j.encoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides how an event that exceeds its byte budget is cut down.
+ *
+ * Only the fields listed in the policy are ever truncated, in the order they are
+ * listed: the first field is shortened (or dropped) until the event fits, then the
+ * next one, and so on. Everything else, such as the timestamp, level and logger
+ * name, is always written in full.
+ */
+public final class TruncationPolicy {
+
+    public enum Field {
+        MESSAGE("message"),
+        EXCEPTION_MESSAGE("exception_message"),
+        STACKTRACE("stacktrace"),
+        MDC("mdc"),
+        NDC("ndc");
+
+        private final String key;
+
+        Field(String key) {
+            this.key = key;
+        }
+
+        public String key() {
+            return key;
+        }
+
+        /**
+         * @return the bytes taken by the member around its value: the quoted key,
+         *         the colon and the separating comma.
+         */
+        public int overhead() {
+            return key.length() + 4;
+        }
+    }
+
+    public static final String DEFAULT_ORDER = "stacktrace,mdc,ndc,exception_message,message";
+
+    public static final TruncationPolicy DEFAULT = parse(DEFAULT_ORDER);
+
+    /**
+     * Bytes of the {@code "truncated":true,"original_size":} marker, without the size itself.
+     */
+    private static final int MARKER_BYTES = ",\"truncated\":true,\"original_size\":".length();
+
+    private final Field[] order;
+
+    private TruncationPolicy(Field[] order) {
+        this.order = order;
+    }
+
+    /**
+     * Parses a comma-separated list of field names, e.g. {@code stacktrace,mdc,message}.
+     *
+     * @throws IllegalArgumentException if a name does not denote a truncatable field.
+     */
+    public static TruncationPolicy parse(String order) {
+        List<Field> fields = new ArrayList<>();
+        for (String name : order.split(",")) {
+            String trimmed = name.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            Field field = null;
+            for (Field candidate : Field.values()) {
+                if (candidate.key.equals(trimmed)) {
+                    field = candidate;
+                }
+            }
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown truncatable field: " + trimmed);
+            }
+            if (!fields.contains(field)) {
+                fields.add(field);
+            }
+        }
+        return new TruncationPolicy(fields.toArray(new Field[0]));
+    }
+
+    /**
+     * Fills {@code limits} so that every truncatable field is dropped and every other
+     * field is kept in full, which is what the event must contain whatever its size.
+     */
+    public void skeleton(int[] limits) {
+        for (Field field : Field.values()) {
+            limits[field.ordinal()] = -1;
+        }
+        for (Field field : order) {
+            limits[field.ordinal()] = 0;
+        }
+    }
+
+    /**
+     * @return the total size of the truncatable fields, given the full size of each.
+     */
+    public int truncatableBytes(int[] sizes) {
+        int total = 0;
+        for (Field field : order) {
+            total += sizes[field.ordinal()];
+        }
+        return total;
+    }
+
+    /**
+     * @return the bytes needed to mark an event of {@code originalSize} bytes as truncated.
+     */
+    public static int markerBytes(int originalSize) {
+        return MARKER_BYTES + Integer.toString(originalSize).length();
+    }
+
+    /**
+     * Shrinks the truncatable fields in policy order until their sizes add up to no
+     * more than {@code budget}.
+     *
+     * @param budget the bytes available to the truncatable fields.
+     * @param sizes the full size of each field's member, 0 if the event does not have it.
+     * @param limits receives the maximum member size of each field: -1 to keep it in
+     *               full, 0 to drop it.
+     */
+    public void allot(int budget, int[] sizes, int[] limits) {
+        for (Field field : Field.values()) {
+            limits[field.ordinal()] = -1;
+        }
+        int excess = truncatableBytes(sizes) - budget;
+        for (Field field : order) {
+            if (excess <= 0) {
+                break;
+            }
+            int size = sizes[field.ordinal()];
+            int cut = Math.min(excess, size);
+            limits[field.ordinal()] = size - cut;
+            excess -= cut;
+        }
+    }
+}
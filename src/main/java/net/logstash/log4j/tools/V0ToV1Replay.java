@@ -0,0 +1,363 @@
+package net.logstash.log4j.tools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import net.logstash.log4j.JSONEventLayoutV1;
+import net.logstash.log4j.data.RecordedThrowable;
+import net.logstash.log4j.encoder.JsonReader;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+import org.json.JSONObject;
+
+/**
+ * Converts newline-delimited events written by {@code JSONEventLayoutV0} into the
+ * format of {@code JSONEventLayoutV1}.
+ *
+ * Each event is parsed, rebuilt as a {@link LoggingEvent} carrying its original
+ * host, timestamp, logger, thread, MDC, NDC, location and exception, and formatted
+ * by a {@link JSONEventLayoutV1}, so the output is exactly what the v1 layout would
+ * have written at the time. The input is read as a stream and cut into chunks of
+ * lines that are converted in parallel. Chunks are written in the order they were
+ * read, and only a fixed number of them is in flight at any time, so memory use does
+ * not depend on the size of the input. Lines that are not v0 events are skipped and
+ * counted.
+ *
+ * Usage: {@code java net.logstash.log4j.tools.V0ToV1Replay [-t threads] [-c chunkLines] input output},
+ * where {@code -} stands for standard input or output and files ending in
+ * {@code .gz} are read or written gzip-compressed. Throughput is reported on
+ * standard error.
+ */
+public final class V0ToV1Replay {
+
+    public static final int DEFAULT_CHUNK_LINES = 4096;
+
+    /**
+     * A chunk is also cut once it holds this many characters, so that a file of very
+     * long lines does not inflate the chunks.
+     */
+    private static final int MAX_CHUNK_CHARS = 4 << 20;
+
+    /**
+     * At most this many distinct hosts have their layouts cached; past that, the
+     * least recently used host is evicted.
+     */
+    private static final int MAX_CACHED_HOSTS = 1024;
+
+    private static final String UNKNOWN_HOST = "unknown-host";
+
+    private final int threads;
+
+    private final int chunkLines;
+
+    /**
+     * The layouts of each host, in access order. Guarded by itself.
+     */
+    private final Map<String, JSONEventLayoutV1[]> layouts = new LinkedHashMap<String, JSONEventLayoutV1[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JSONEventLayoutV1[]> eldest) {
+            return size() > MAX_CACHED_HOSTS;
+        }
+    };
+
+    /**
+     * @param threads the number of threads converting chunks.
+     * @param chunkLines the maximum number of lines per chunk.
+     */
+    public V0ToV1Replay(int threads, int chunkLines) {
+        this.threads = Math.max(1, threads);
+        this.chunkLines = Math.max(1, chunkLines);
+    }
+
+    /**
+     * Converts every line of {@code input} into {@code output}. Neither is closed.
+     *
+     * @return the statistics of the run.
+     * @throws IOException if reading or writing fails.
+     */
+    public Result replay(BufferedReader input, Writer output) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "v0-to-v1-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Result result = new Result();
+        long start = System.nanoTime();
+        ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        try {
+            List<String> lines = new ArrayList<>(chunkLines);
+            int chars = 0;
+            String line;
+            while ((line = input.readLine()) != null) {
+                lines.add(line);
+                chars += line.length();
+                result.bytesRead += line.length() + 1;
+                if (lines.size() >= chunkLines || chars >= MAX_CHUNK_CHARS) {
+                    final List<String> chunk = lines;
+                    inFlight.add(executor.submit(() -> convert(chunk)));
+                    lines = new ArrayList<>(chunkLines);
+                    chars = 0;
+                    if (inFlight.size() >= threads * 2) {
+                        write(inFlight.poll(), output, result);
+                    }
+                }
+            }
+            if (!lines.isEmpty()) {
+                final List<String> chunk = lines;
+                inFlight.add(executor.submit(() -> convert(chunk)));
+            }
+            while (!inFlight.isEmpty()) {
+                write(inFlight.poll(), output, result);
+            }
+            output.flush();
+        } finally {
+            executor.shutdownNow();
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private static void write(Future<Chunk> pending, Writer output, Result result) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while converting", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Conversion failed", e.getCause());
+        }
+        output.append(chunk.output);
+        result.lines += chunk.lines;
+        result.events += chunk.events;
+        result.skipped += chunk.lines - chunk.events;
+        result.bytesWritten += chunk.output.length();
+    }
+
+    private Chunk convert(List<String> lines) {
+        Chunk chunk = new Chunk();
+        chunk.lines = lines.size();
+        for (String line : lines) {
+            if (convert(line, chunk.output)) {
+                chunk.events++;
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Appends the v1 form of a v0 event, with its trailing newline, to {@code output}.
+     *
+     * @return false if the line is not a v0 event and nothing was appended.
+     */
+    public boolean convert(String line, StringBuilder output) {
+        Map<?, ?> event;
+        long timestamp;
+        try {
+            Object parsed = JsonReader.parse(line);
+            if (!(parsed instanceof Map)) {
+                return false;
+            }
+            event = (Map<?, ?>) parsed;
+            Object time = event.get("@timestamp");
+            if (!(time instanceof String)) {
+                return false;
+            }
+            timestamp = Instant.parse((String) time).toEpochMilli();
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return false;
+        }
+
+        Map<?, ?> fields = event.get("@fields") instanceof Map ? (Map<?, ?>) event.get("@fields") : new Hashtable<>();
+        String loggerName = string(fields.get("loggerName"));
+        Level level = Level.toLevel(string(fields.get("level")), Level.INFO);
+
+        Hashtable<Object, Object> mdc = new Hashtable<>();
+        if (fields.get("mdc") instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) fields.get("mdc")).entrySet()) {
+                if (entry.getValue() != null && entry.getValue() != JSONObject.NULL) {
+                    mdc.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        RecordedThrowable throwable = null;
+        if (fields.get("exception") instanceof Map) {
+            Map<?, ?> exception = (Map<?, ?>) fields.get("exception");
+            String stackTrace = string(exception.get("stacktrace"));
+            throwable = new RecordedThrowable(string(exception.get("exception_class")), string(exception.get("exception_message")),
+                    stackTrace != null ? stackTrace.split("\n", -1) : null);
+        }
+
+        String file = string(fields.get("file"));
+        String lineNumber = string(fields.get("line_number"));
+        String className = string(fields.get("class"));
+        String methodName = string(fields.get("method"));
+        boolean hasLocation = file != null || lineNumber != null || className != null || methodName != null;
+        LocationInfo location = hasLocation ? new LocationInfo(file, className, methodName, lineNumber) : null;
+
+        // LoggingEvent would fill in a missing thread name with that of the converting thread
+        String threadName = string(fields.get("threadName"));
+
+        LoggingEvent loggingEvent = new LoggingEvent(Logger.class.getName(), new ReplayLogger(loggerName != null ? loggerName : ""),
+                timestamp, level, string(event.get("@message")), threadName != null ? threadName : "", throwable,
+                string(fields.get("ndc")), location, mdc);
+        String host = string(event.get("@source_host"));
+        layout(host != null ? host : UNKNOWN_HOST, hasLocation).formatTo(loggingEvent, output);
+        return true;
+    }
+
+    /**
+     * @return a layout writing {@code host} as the source host, with or without
+     *         location information.
+     */
+    private JSONEventLayoutV1 layout(String host, boolean locationInfo) {
+        JSONEventLayoutV1[] pair;
+        synchronized (layouts) {
+            pair = layouts.get(host);
+        }
+        if (pair == null) {
+            pair = new JSONEventLayoutV1[]{newLayout(host, false), newLayout(host, true)};
+            synchronized (layouts) {
+                JSONEventLayoutV1[] existing = layouts.putIfAbsent(host, pair);
+                pair = existing != null ? existing : pair;
+            }
+        }
+        return pair[locationInfo ? 1 : 0];
+    }
+
+    private static JSONEventLayoutV1 newLayout(String host, boolean locationInfo) {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1(locationInfo);
+        layout.setSourceHost(host);
+        layout.setGarbageFree(true);
+        return layout;
+    }
+
+    private static String string(Object value) {
+        return value == null || value == JSONObject.NULL ? null : String.valueOf(value);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunkLines = DEFAULT_CHUNK_LINES;
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-t".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("-c".equals(args[i]) && i + 1 < args.length) {
+                chunkLines = Integer.parseInt(args[++i]);
+            } else {
+                paths.add(args[i]);
+            }
+        }
+        if (paths.size() != 2) {
+            System.err.println("Usage: V0ToV1Replay [-t threads] [-c chunkLines] input output");
+            System.exit(2);
+        }
+
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(open(paths.get(0)), StandardCharsets.UTF_8), 1 << 16);
+             Writer output = new BufferedWriter(new OutputStreamWriter(create(paths.get(1)), StandardCharsets.UTF_8), 1 << 16)) {
+            Result result = new V0ToV1Replay(threads, chunkLines).replay(input, output);
+            System.err.println(result);
+        }
+    }
+
+    private static InputStream open(String path) throws IOException {
+        if ("-".equals(path)) {
+            return System.in;
+        }
+        InputStream stream = Files.newInputStream(Paths.get(path));
+        return path.endsWith(".gz") ? new GZIPInputStream(stream, 1 << 16) : stream;
+    }
+
+    private static OutputStream create(String path) throws IOException {
+        if ("-".equals(path)) {
+            return System.out;
+        }
+        OutputStream stream = Files.newOutputStream(Paths.get(path));
+        return path.endsWith(".gz") ? new GZIPOutputStream(stream, 1 << 16) : stream;
+    }
+
+    /**
+     * Statistics of a run. Byte counts are in characters of the decompressed text.
+     */
+    public static final class Result {
+        long lines;
+        long events;
+        long skipped;
+        long bytesRead;
+        long bytesWritten;
+        long nanos;
+
+        public long getLines() {
+            return lines;
+        }
+
+        public long getEvents() {
+            return events;
+        }
+
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(nanos, 1) / 1e9;
+            return String.format("%d lines, %d events converted, %d skipped in %.2f s: %.0f events/s, %.1f MB/s read, %.1f MB/s written",
+                    lines, events, skipped, seconds, events / seconds, bytesRead / seconds / 1e6, bytesWritten / seconds / 1e6);
+        }
+    }
+
+    private static final class Chunk {
+        final StringBuilder output = new StringBuilder();
+        int lines;
+        int events;
+    }
+
+    /**
+     * A logger that only carries a name, so that replaying events does not register
+     * loggers with log4j's repository.
+     */
+    private static final class ReplayLogger extends Logger {
+        ReplayLogger(String name) {
+            super(name);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package net.logstash.log4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.NDC;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * A reproducible mix of events for the performance suite: mostly short INFO and
+ * DEBUG lines, some with MDC entries or an NDC, a few long messages and a few
+ * errors with a stack trace. The same seed always yields the same events, and each
+ * event captures its MDC and NDC up front so it can be formatted any number of times.
+ */
+final class EventCorpus {
+
+    private static final long BASE_TIMESTAMP = 1364844991207L;
+
+    private static final String[] LOGGERS = {
+            "com.example.checkout.OrderService", "com.example.checkout.PaymentGateway",
+            "com.example.inventory.StockLevels", "com.example.web.RequestFilter", "org.hibernate.SQL",
+    };
+
+    private static final Level[] LEVELS = {Level.DEBUG, Level.INFO, Level.INFO, Level.INFO, Level.WARN};
+
+    private static final String[] WORDS = {
+            "order", "payment", "accepted", "user", "request", "took", "ms", "cache", "miss", "retrying",
+            "\"quoted\"", "path=/api/v1/orders", "<tag/>", "café", "日本", "tab\there",
+    };
+
+    private EventCorpus() {
+    }
+
+    static List<LoggingEvent> generate(long seed, int size) {
+        Random random = new Random(seed);
+        List<LoggingEvent> events = new ArrayList<>(size);
+        Throwable[] failures = {
+                new IllegalStateException("connection pool exhausted"),
+                new IllegalArgumentException("invalid card 4111 1111 1111 1111 for jane@example.com", new RuntimeException("root cause")),
+        };
+        for (int i = 0; i < size; i++) {
+            Logger logger = Logger.getLogger(LOGGERS[random.nextInt(LOGGERS.length)]);
+            int kind = random.nextInt(100);
+            if (kind < 60) {
+                MDC.put("request_id", Long.toHexString(random.nextLong()));
+                MDC.put("user", "user-" + random.nextInt(1000));
+            }
+            if (kind >= 50 && kind < 55) {
+                NDC.push("batch-" + random.nextInt(10));
+            }
+            Level level = kind >= 97 ? Level.ERROR : LEVELS[random.nextInt(LEVELS.length)];
+            Throwable throwable = kind >= 97 ? failures[random.nextInt(failures.length)] : null;
+            String message = message(random, kind >= 90 && kind < 97 ? 200 : 4 + random.nextInt(12));
+            LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, BASE_TIMESTAMP + i, level, message, throwable);
+            event.getMDCCopy();
+            event.getNDC();
+            event.getThreadName();
+            event.getThrowableStrRep();
+            events.add(event);
+            MDC.remove("request_id");
+            MDC.remove("user");
+            NDC.clear();
+        }
+        return Collections.unmodifiableList(events);
+    }
+
+    private static String message(Random random, int words) {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                message.append(' ');
+            }
+            message.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return message.toString();
+    }
+}
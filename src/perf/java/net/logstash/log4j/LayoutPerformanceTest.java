@@ -0,0 +1,189 @@
+package net.logstash.log4j;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+import net.logstash.log4j.encoder.JsonReader;
+import net.logstash.log4j.encoder.JsonWriter;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Throughput and allocation regression suite, run with {@code mvn -Pperf test}.
+ *
+ * Each scenario formats the seeded {@link EventCorpus} repeatedly and records the
+ * best throughput and the lowest allocation per event over several rounds. The
+ * results are written to {@code perf.report} and compared with {@code perf.baseline}:
+ * a scenario fails if its allocation grows by more than {@code perf.allocationTolerance}.
+ * Throughput depends on the machine and its load, so it is only reported next to the
+ * baseline, never checked. With {@code -Dperf.updateBaseline=true} the measured values
+ * replace the baseline instead.
+ */
+public class LayoutPerformanceTest {
+    static final long SEED = 42L;
+    static final int CORPUS_SIZE = 2000;
+    static final int REPETITIONS = 25;
+    static final int WARMUP_ROUNDS = 4;
+    static final int MEASURED_ROUNDS = 5;
+
+    /**
+     * Allocation is allowed to exceed the baseline by this many bytes per event
+     * whatever the tolerance, so that a garbage-free baseline of 0 is not failed by
+     * the odd allocation of the JIT or the JVM.
+     */
+    static final long ALLOCATION_SLACK = 16;
+
+    private long checksum;
+
+    @Test
+    public void testLayoutsDoNotRegress() throws IOException {
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported(), "Allocation counters unavailable");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        List<LoggingEvent> corpus = EventCorpus.generate(SEED, CORPUS_SIZE);
+        Map<String, ToIntFunction<LoggingEvent>> scenarios = scenarios();
+        Map<String, long[]> results = new LinkedHashMap<>();
+        for (Map.Entry<String, ToIntFunction<LoggingEvent>> scenario : scenarios.entrySet()) {
+            results.put(scenario.getKey(), measure(threads, corpus, scenario.getValue()));
+        }
+
+        Path baselinePath = Paths.get(System.getProperty("perf.baseline", "src/perf/resources/perf-baseline.json"));
+        Path reportPath = Paths.get(System.getProperty("perf.report", "target/perf/perf-report.json"));
+        double allocationTolerance = Double.parseDouble(System.getProperty("perf.allocationTolerance", "0.10"));
+
+        if (Boolean.getBoolean("perf.updateBaseline")) {
+            JsonWriter baseline = new JsonWriter().beginObject();
+            for (Map.Entry<String, long[]> result : results.entrySet()) {
+                baseline.name(result.getKey()).beginObject()
+                        .name("events_per_second").value(result.getValue()[0])
+                        .name("bytes_per_event").value(result.getValue()[1])
+                        .endObject();
+            }
+            write(baselinePath, baseline.endObject());
+            return;
+        }
+
+        Map<?, ?> baseline = Files.exists(baselinePath)
+                ? (Map<?, ?>) JsonReader.parse(new String(Files.readAllBytes(baselinePath), StandardCharsets.UTF_8))
+                : new LinkedHashMap<>();
+        List<String> regressions = new ArrayList<>();
+        JsonWriter report = new JsonWriter().beginObject();
+        report.name("corpus").beginObject().name("seed").value(SEED).name("events").value(CORPUS_SIZE).endObject();
+        report.name("java_version").value(System.getProperty("java.version"));
+        report.name("available_processors").value(Runtime.getRuntime().availableProcessors());
+        report.name("allocation_tolerance").value(allocationTolerance);
+        report.name("scenarios").beginObject();
+        for (Map.Entry<String, long[]> result : results.entrySet()) {
+            String name = result.getKey();
+            long eventsPerSecond = result.getValue()[0];
+            long bytesPerEvent = result.getValue()[1];
+            report.name(name).beginObject()
+                    .name("events_per_second").value(eventsPerSecond)
+                    .name("bytes_per_event").value(bytesPerEvent);
+            Object expected = baseline.get(name);
+            if (expected instanceof Map) {
+                long baselineEventsPerSecond = ((Number) ((Map<?, ?>) expected).get("events_per_second")).longValue();
+                long baselineBytesPerEvent = ((Number) ((Map<?, ?>) expected).get("bytes_per_event")).longValue();
+                boolean heavier = bytesPerEvent > baselineBytesPerEvent * (1 + allocationTolerance) + ALLOCATION_SLACK;
+                if (heavier) {
+                    regressions.add(name + ": " + bytesPerEvent + " bytes/event, baseline " + baselineBytesPerEvent);
+                }
+                report.name("baseline_events_per_second").value(baselineEventsPerSecond)
+                        .name("baseline_bytes_per_event").value(baselineBytesPerEvent)
+                        .name("status").value(heavier ? "regressed" : "ok");
+            } else {
+                report.name("status").value("no_baseline");
+            }
+            report.endObject();
+        }
+        report.endObject();
+        report.name("checksum").value(checksum);
+        write(reportPath, report.endObject());
+
+        assertTrue(regressions.isEmpty(), "Performance regressed (see " + reportPath + "): " + regressions);
+    }
+
+    /**
+     * The configurations under test. Each one formats an event and returns a number
+     * derived from the output, so that the work cannot be optimized away.
+     */
+    private static Map<String, ToIntFunction<LoggingEvent>> scenarios() {
+        Map<String, ToIntFunction<LoggingEvent>> scenarios = new LinkedHashMap<>();
+
+        JSONEventLayoutV1 v1 = new JSONEventLayoutV1(false);
+        scenarios.put("v1_format", event -> v1.format(event).length());
+
+        JSONEventLayoutV1 garbageFree = new JSONEventLayoutV1(false);
+        garbageFree.setGarbageFree(true);
+        StringBuilder destination = new StringBuilder(4096);
+        scenarios.put("v1_garbage_free_format_to", event -> {
+            destination.setLength(0);
+            garbageFree.formatTo(event, destination);
+            return destination.length();
+        });
+
+        JSONEventLayoutV1 redacting = new JSONEventLayoutV1(false);
+        redacting.setRedactPatterns("card,email");
+        redacting.setRedactMdcKeys("user");
+        scenarios.put("v1_redacted", event -> redacting.format(event).length());
+
+        JSONEventLayoutV1 bounded = new JSONEventLayoutV1(false);
+        bounded.setMaxEventBytes(1024);
+        scenarios.put("v1_max_event_bytes", event -> bounded.format(event).length());
+
+        JSONEventLayoutV0 v0 = new JSONEventLayoutV0(false);
+        scenarios.put("v0_format", event -> v0.format(event).length());
+        return scenarios;
+    }
+
+    /**
+     * @return the best throughput in events per second and the lowest number of
+     *         bytes allocated per event over the measured rounds.
+     */
+    private long[] measure(com.sun.management.ThreadMXBean threads, List<LoggingEvent> corpus, ToIntFunction<LoggingEvent> scenario) {
+        long threadId = Thread.currentThread().getId();
+        long events = (long) corpus.size() * REPETITIONS;
+        long bestEventsPerSecond = 0;
+        long leastBytesPerEvent = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int repetition = 0; repetition < REPETITIONS; repetition++) {
+                for (int i = 0; i < corpus.size(); i++) {
+                    checksum += scenario.applyAsInt(corpus.get(i));
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            if (round >= WARMUP_ROUNDS) {
+                bestEventsPerSecond = Math.max(bestEventsPerSecond, events * 1000000000L / Math.max(1, elapsed));
+                leastBytesPerEvent = Math.min(leastBytesPerEvent, allocated / events);
+            }
+        }
+        return new long[]{bestEventsPerSecond, leastBytesPerEvent};
+    }
+
+    private static void write(Path path, JsonWriter json) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Files.write(path, json.getBuffer().append('\n').toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+}
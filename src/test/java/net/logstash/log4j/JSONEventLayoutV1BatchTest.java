@@ -0,0 +1,151 @@
+package net.logstash.log4j;
+
+import static net.logstash.log4j.TestEvents.newEvent;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.NDC;
+import org.apache.log4j.spi.LoggingEvent;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+public class JSONEventLayoutV1BatchTest {
+    static final Logger logger = Logger.getLogger(JSONEventLayoutV1BatchTest.class);
+
+    @Test
+    public void testBatchPreservesEventOrder() {
+        List<LoggingEvent> events = newEvents(5000);
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setBatchParallelism(4);
+
+        String[] lines = layout.formatBatch(events).split("\n");
+
+        assertEquals(events.size(), lines.length, "Batch has the wrong number of lines");
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals("event " + i, new JSONObject(lines[i]).get("message"), "Event out of order at line " + i);
+        }
+        layout.setBatchParallelism(0);
+    }
+
+    @Test
+    public void testBatchMatchesSequentialFormatting() throws IOException {
+        List<LoggingEvent> events = newEvents(1000);
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setGarbageFree(true);
+        StringBuilder expected = new StringBuilder();
+        for (LoggingEvent event : events) {
+            expected.append(layout.format(event));
+        }
+
+        StringWriter output = new StringWriter();
+        layout.formatBatch(events, output);
+
+        assertEquals(expected.toString(), layout.formatBatch(events), "Batch differs from sequential output");
+        assertEquals(expected.toString(), output.toString(), "Written batch differs from sequential output");
+    }
+
+    @Test
+    public void testEmptyAndSmallBatches() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        List<LoggingEvent> events = newEvents(3);
+
+        assertEquals("", layout.formatBatch(Collections.<LoggingEvent>emptyList()), "Empty batch is not empty");
+        assertEquals(layout.format(events.get(0)) + layout.format(events.get(1)) + layout.format(events.get(2)),
+                layout.formatBatch(events), "Small batch differs from sequential output");
+    }
+
+    @Test
+    public void testBatchCapturesThreadDataOnCallingThread() {
+        for (int parallelism : new int[]{0, 4}) {
+            List<LoggingEvent> events = new ArrayList<>();
+            MDC.put("request_id", "abc-123");
+            NDC.push("batch");
+            for (int i = 0; i < 5000; i++) {
+                events.add(newEvent(logger, "event " + i));
+            }
+            JSONEventLayoutV1 layout = new JSONEventLayoutV1(false);
+            layout.setBatchParallelism(parallelism);
+
+            String[] lines = layout.formatBatch(events).split("\n");
+            MDC.remove("request_id");
+            NDC.clear();
+
+            for (int i = 0; i < lines.length; i++) {
+                JSONObject jsonObject = new JSONObject(lines[i]);
+                assertEquals(Thread.currentThread().getName(), jsonObject.get("thread_name"), "Wrong thread name at line " + i);
+                assertEquals("batch", jsonObject.get("ndc"), "Wrong NDC at line " + i);
+                assertEquals("abc-123", jsonObject.getJSONObject("mdc").get("request_id"), "Wrong MDC at line " + i);
+            }
+            assertEquals(Thread.currentThread().getName(), events.get(0).getThreadName(), "Event cached the wrong thread name");
+            layout.setBatchParallelism(0);
+        }
+    }
+
+    @Test
+    public void testChangingParallelismDuringBatches() throws InterruptedException {
+        CountDownLatch encoding = new CountDownLatch(1);
+        CountDownLatch changed = new CountDownLatch(1);
+        Object blockingMessage = new Object() {
+            @Override
+            public String toString() {
+                encoding.countDown();
+                try {
+                    changed.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "blocking";
+            }
+        };
+        List<LoggingEvent> events = newEvents(2000);
+        events.set(1000, new LoggingEvent(Logger.class.getName(), logger, Level.INFO, blockingMessage, null));
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setBatchParallelism(2);
+
+        AtomicReference<String> output = new AtomicReference<>();
+        Thread batch = new Thread(() -> output.set(layout.formatBatch(events)));
+        batch.start();
+        try {
+            assertTrue(encoding.await(10, TimeUnit.SECONDS), "The batch never reached the blocking event");
+            // the batch is running on the pool that these calls retire
+            layout.setBatchParallelism(3);
+            layout.setBatchParallelism(0);
+        } finally {
+            changed.countDown();
+            batch.join(10000);
+        }
+
+        assertNotNull(output.get(), "The batch running on the retired pool did not complete");
+        String[] lines = output.get().split("\n");
+        assertEquals(events.size(), lines.length, "Batch on the retired pool lost events");
+        assertEquals("blocking", new JSONObject(lines[1000]).get("message"), "Blocking event is out of place");
+
+        layout.setBatchParallelism(2);
+        assertEquals(events.size(), layout.formatBatch(events).split("\n").length, "Batch on the replacement pool lost events");
+        layout.setBatchParallelism(0);
+        assertEquals(events.size(), layout.formatBatch(events).split("\n").length, "Batch on the common pool lost events");
+    }
+
+    private static List<LoggingEvent> newEvents(int count) {
+        List<LoggingEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Throwable throwable = i % 50 == 0 ? new IllegalStateException("failure " + i) : null;
+            LoggingEvent event = newEvent(logger, "event " + i, throwable);
+            event.getLocationInformation();
+            events.add(event);
+        }
+        return events;
+    }
+}
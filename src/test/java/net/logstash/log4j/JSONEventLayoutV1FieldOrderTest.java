@@ -0,0 +1,143 @@
+package net.logstash.log4j;
+
+import static net.logstash.log4j.TestEvents.newEvent;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+import net.logstash.log4j.encoder.DictionaryDecoder;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.NDC;
+import org.apache.log4j.spi.LoggingEvent;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class JSONEventLayoutV1FieldOrderTest {
+    static final Logger logger = Logger.getLogger(JSONEventLayoutV1FieldOrderTest.class);
+
+    @AfterEach
+    public void clearMDC() {
+        Map<?, ?> context = MDC.getContext();
+        if (context != null) {
+            context.clear();
+        }
+    }
+
+    @Test
+    public void testDefaultFieldOrder() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1(false);
+        String formatted = layout.format(newEvent(logger, "hello"));
+
+        assertTrue(formatted.startsWith("{\"@version\":1,\"@timestamp\":\""), "Event does not start with @version and @timestamp");
+        assertOrdered(formatted, "\"source_host\"", "\"message\"", "\"logger_name\"", "\"mdc\"", "\"level\"", "\"thread_name\"");
+    }
+
+    @Test
+    public void testConfiguredFieldOrder() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1(false);
+        layout.setFieldOrder("level, @timestamp,logger_name");
+        String formatted = layout.format(newEvent(logger, "hello"));
+
+        assertTrue(formatted.startsWith("{\"level\":\"INFO\",\"@timestamp\":"), "Configured fields do not come first");
+        assertOrdered(formatted, "\"logger_name\"", "\"@version\"", "\"source_host\"", "\"message\"", "\"thread_name\"");
+
+        layout.setFieldOrder("level,no_such_field");
+        assertEquals("level, @timestamp,logger_name", layout.getFieldOrder(), "Invalid order was not ignored");
+    }
+
+    @Test
+    public void testUserFieldsOnlyGiveWayToFieldsThatAreWritten() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1(false);
+        layout.setUserFields("ndc:from-config,file:Config.java,level:from-config,team:core");
+        JSONObject jsonObject = new JSONObject(layout.format(newEvent(logger, "hello")));
+
+        assertEquals("from-config", jsonObject.get("ndc"), "User field was dropped although the event has no NDC");
+        assertEquals("Config.java", jsonObject.get("file"), "User field was dropped although location is not written");
+        assertEquals("INFO", jsonObject.get("level"), "User field replaced the level");
+        assertEquals("core", jsonObject.get("team"), "Unrelated user field is missing");
+
+        NDC.push("from-event");
+        try {
+            jsonObject = new JSONObject(layout.format(newEvent(logger, "hello")));
+        } finally {
+            NDC.remove();
+        }
+        assertEquals("from-event", jsonObject.get("ndc"), "User field replaced the NDC of the event");
+    }
+
+    @Test
+    public void testMDCKeysAreSorted() {
+        MDC.put("zeta", "1");
+        MDC.put("alpha", "2");
+        MDC.put("mu", "3");
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1(false);
+        String first = layout.format(newEvent(logger, "hello"));
+        clearMDC();
+        MDC.put("mu", "3");
+        MDC.put("zeta", "1");
+        MDC.put("alpha", "2");
+        String second = layout.format(newEvent(logger, "hello"));
+
+        assertTrue(first.contains("\"mdc\":{\"alpha\":\"2\",\"mu\":\"3\",\"zeta\":\"1\"}"), "MDC keys are not sorted");
+        assertEquals(first.substring(first.indexOf("\"source_host\"")), second.substring(second.indexOf("\"source_host\"")),
+                "Same MDC in a different order produced different output");
+    }
+
+    @Test
+    public void testV0FieldOrder() {
+        MDC.put("b", "1");
+        MDC.put("a", "2");
+        JSONEventLayoutV0 layout = new JSONEventLayoutV0(false);
+        layout.setFieldOrder("@timestamp,level,@message");
+        String formatted = layout.format(newEvent(logger, "hello"));
+
+        assertTrue(formatted.startsWith("{\"@timestamp\":"), "V0 top-level order was not applied");
+        assertOrdered(formatted, "\"@message\"", "\"@source_host\"", "\"@fields\":{\"level\"", "\"loggerName\"", "\"mdc\":{\"a\":\"2\",\"b\":\"1\"}", "\"threadName\"");
+        assertEquals("hello", new JSONObject(formatted).get("@message"), "V0 event is not valid JSON");
+    }
+
+    @Test
+    public void testDictionaryRoundTrip() throws IOException {
+        JSONEventLayoutV1 plain = new JSONEventLayoutV1(false);
+        JSONEventLayoutV1 encoding = new JSONEventLayoutV1(false);
+        encoding.setDictionaryInterval(3);
+        StringBuilder expected = new StringBuilder();
+        StringBuilder encoded = new StringBuilder();
+        Logger hashLogger = Logger.getLogger("#weird.logger");
+        for (int i = 0; i < 10; i++) {
+            MDC.put("request_id", "r" + i);
+            if (i == 4) {
+                MDC.put("user", "jane");
+            }
+            LoggingEvent event = newEvent(i == 7 ? hashLogger : logger, Level.INFO, "event " + i, null);
+            expected.append(plain.format(event));
+            encoded.append(encoding.format(event));
+        }
+
+        for (String line : encoded.toString().split("\n")) {
+            if (!line.startsWith("{\"@dictionary\"")) {
+                assertFalse(line.contains(logger.getName()) || line.contains("request_id"), "Names were not abbreviated in " + line);
+            }
+        }
+        assertTrue(encoded.toString().contains("{\"@dictionary\":{\"1\":\"" + logger.getName() + "\""), "Dictionary header is missing");
+        StringWriter decoded = new StringWriter();
+        new DictionaryDecoder().decode(new StringReader(encoded.toString()), decoded);
+        assertEquals(expected.toString(), decoded.toString(), "Decoded output differs from plain output");
+    }
+
+    private static void assertOrdered(String formatted, String... fragments) {
+        int last = -1;
+        for (String fragment : fragments) {
+            int index = formatted.indexOf(fragment);
+            assertTrue(index > last, fragment + " is missing or out of order in " + formatted);
+            last = index;
+        }
+    }
+}
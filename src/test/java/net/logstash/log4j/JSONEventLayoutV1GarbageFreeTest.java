@@ -0,0 +1,204 @@
+package net.logstash.log4j;
+
+import static net.logstash.log4j.TestEvents.newEvent;
+import static net.logstash.log4j.TestEvents.repeat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import net.logstash.log4j.data.TraceContext;
+import net.logstash.log4j.encoder.JsonWriter;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.spi.LoggingEvent;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class JSONEventLayoutV1GarbageFreeTest {
+    static final Logger logger = Logger.getLogger(JSONEventLayoutV1GarbageFreeTest.class);
+    static final int WARMUP_EVENTS = 200000;
+    static final int MEASURED_EVENTS = 100000;
+
+    /**
+     * The number of distinct events formatted in turn, so that every event is new to
+     * the layout and nothing it might remember between events hides a per-event cost.
+     */
+    static final int DISTINCT_EVENTS = 4096;
+
+    /**
+     * The most a read-only map view takes on the heap, which log4j allocates every time
+     * the properties of an event are asked for.
+     */
+    static final int PROPERTIES_VIEW_BYTES = 48;
+
+    @AfterEach
+    public void clearMDC() {
+        MDC.remove("request_id");
+        TraceContext.clear();
+    }
+
+    @Test
+    public void testGarbageFreeOutputMatchesDefaultOutput() {
+        MDC.put("request_id", "abc-123");
+        LoggingEvent event = newEvent(logger, "same \"output\" </script>  either way", null);
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        String expected = layout.format(event);
+
+        layout.setGarbageFree(true);
+        StringBuilder output = new StringBuilder();
+        layout.formatTo(event, output);
+        layout.formatTo(event, output);
+
+        assertEquals(expected + expected, output.toString(), "Garbage-free output differs");
+        JSONObject jsonObject = new JSONObject(expected);
+        assertEquals("same \"output\" </script>  either way", jsonObject.get("message"), "Message was not escaped properly");
+        assertEquals("abc-123", jsonObject.getJSONObject("mdc").get("request_id"), "MDC is wrong");
+    }
+
+    @Test
+    public void testGarbageFreeExceptionOutput() {
+        LoggingEvent event = newEvent(logger, "uh-oh", new IllegalStateException("on fire"));
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setGarbageFree(true);
+        JSONObject exception = new JSONObject(layout.format(event)).getJSONObject("exception");
+
+        assertEquals("java.lang.IllegalStateException", exception.get("exception_class"), "Exception class missing");
+        assertEquals(String.join("\n", event.getThrowableStrRep()), exception.get("stacktrace"), "Stacktrace is wrong");
+    }
+
+    @Test
+    public void testBufferMemoryIsReported() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setGarbageFree(true);
+        assertEquals(0, layout.getBufferMemory(), "No buffers should be held before formatting");
+
+        StringBuilder output = new StringBuilder();
+        layout.formatTo(newEvent(logger, "uh-oh", new IllegalStateException("on fire")), output);
+        layout.formatTo(newEvent(logger, "fine", null), output);
+
+        assertEquals(1, layout.getBufferedThreads(), "Expected buffers for this thread only");
+        assertTrue(layout.getBufferMemory() > 0, "Buffer memory was not reported");
+    }
+
+    @Test
+    public void testTimestampMatchesDateFormat() {
+        long[] timestamps = {0L, 1364844991207L, 951782400000L, 4102444799999L, -1L, -86400001L};
+        for (long timestamp : timestamps) {
+            StringBuilder out = new StringBuilder();
+            JsonWriter.appendTimestamp(out, timestamp);
+            assertEquals(JSONEventLayoutV1.dateFormat(timestamp), out.toString(), "Timestamp mismatch for " + timestamp);
+        }
+    }
+
+    @Test
+    public void testSteadyStateFormattingOnlyAllocatesPropertiesView() throws IOException {
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported(), "Allocation counters unavailable");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        MDC.put("request_id", "abc-123");
+        TraceContext.set(0x4bf92f3577b34da6L, 0xa3ce929d0e0e4736L, 0x00f067aa0ba902b7L);
+        LoggingEvent[] events = newEvents("steady state message");
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setGarbageFree(true);
+        layout.setUserFields("service:checkout,zone:eu-west-1");
+        StringBuilder destination = new StringBuilder(1024);
+        Writer sink = new NullWriter();
+
+        for (int i = 0; i < WARMUP_EVENTS; i++) {
+            formatAndWrite(layout, events[i % DISTINCT_EVENTS], destination, sink);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_EVENTS; i++) {
+            formatAndWrite(layout, events[i % DISTINCT_EVENTS], destination, sink);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertPropertiesViewOnly(allocated);
+    }
+
+    @Test
+    public void testMixedEventSizesDoNotReallocate() throws IOException {
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported(), "Allocation counters unavailable");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        MDC.put("request_id", "abc-123");
+        LoggingEvent[] events = newEvents("short", repeat("medium ", 300), repeat("long and escaped \"line\"\n", 200));
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setGarbageFree(true);
+        StringBuilder destination = new StringBuilder(1024);
+        Writer sink = new NullWriter();
+
+        for (int i = 0; i < WARMUP_EVENTS; i++) {
+            formatAndWrite(layout, events[i % DISTINCT_EVENTS], destination, sink);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_EVENTS; i++) {
+            formatAndWrite(layout, events[i % DISTINCT_EVENTS], destination, sink);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertPropertiesViewOnly(allocated);
+    }
+
+    /**
+     * Every event is formatted twice per iteration, and each time log4j hands out a
+     * new view of its properties. Nothing else may be allocated.
+     */
+    private static void assertPropertiesViewOnly(long allocated) {
+        long formatted = 2L * MEASURED_EVENTS;
+        assertTrue(allocated <= formatted * PROPERTIES_VIEW_BYTES,
+                "Expected no allocation beyond the properties view of each event but measured "
+                        + allocated + " bytes over " + formatted + " formatted events");
+    }
+
+    /**
+     * @return {@link #DISTINCT_EVENTS} events cycling through {@code messages}, with
+     *         their thread data already captured, as it is for events an appender queues.
+     */
+    private static LoggingEvent[] newEvents(String... messages) {
+        LoggingEvent[] events = new LoggingEvent[DISTINCT_EVENTS];
+        for (int i = 0; i < events.length; i++) {
+            LoggingEvent event = newEvent(logger, messages[i % messages.length], null);
+            event.getThreadName();
+            event.getNDC();
+            event.getMDCCopy();
+            events[i] = event;
+        }
+        return events;
+    }
+
+    private static void formatAndWrite(JSONEventLayoutV1 layout, LoggingEvent event, StringBuilder destination, Writer sink) throws IOException {
+        destination.setLength(0);
+        layout.formatTo(event, destination);
+        layout.formatTo(event, sink);
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+
+    private static final class NullWriter extends Writer {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
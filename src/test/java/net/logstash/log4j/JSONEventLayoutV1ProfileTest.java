@@ -0,0 +1,80 @@
+package net.logstash.log4j;
+
+import static net.logstash.log4j.TestEvents.newEvent;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class JSONEventLayoutV1ProfileTest {
+    private JSONEventLayoutV1 layout;
+
+    @BeforeEach
+    public void setUp() {
+        MDC.put("request_id", "r1");
+        layout = new JSONEventLayoutV1(false);
+        layout.setProfileRules("DEBUG:com.example.chatty=lean;*:com.example.chatty.important=full;ERROR=full");
+        layout.setProfiles("lean=message,level,logger_name;full=*");
+    }
+
+    @AfterEach
+    public void clearMDC() {
+        MDC.remove("request_id");
+    }
+
+    @Test
+    public void testLeanProfileForChattyDebug() {
+        JSONObject jsonObject = format("com.example.chatty.Poller", Level.DEBUG, null);
+
+        assertEquals(1, jsonObject.get("@version"), "@version is always written");
+        assertTrue(jsonObject.has("@timestamp"), "@timestamp is always written");
+        assertEquals("polled", jsonObject.get("message"));
+        assertEquals("DEBUG", jsonObject.get("level"));
+        assertFalse(jsonObject.has("mdc"), "Lean profile should not write the MDC");
+        assertFalse(jsonObject.has("thread_name"), "Lean profile should not write the thread name");
+        assertFalse(jsonObject.has("source_host"), "Lean profile should not write the host");
+    }
+
+    @Test
+    public void testFullProfileForErrors() {
+        JSONObject jsonObject = format("com.example.chatty.Poller", Level.ERROR, new IllegalStateException("boom"));
+
+        assertEquals("r1", jsonObject.getJSONObject("mdc").get("request_id"), "Full profile should write the MDC");
+        assertEquals("boom", jsonObject.getJSONObject("exception").get("exception_message"));
+        assertTrue(jsonObject.has("file") && jsonObject.has("method"), "Full profile should write location information");
+    }
+
+    @Test
+    public void testLongestPrefixAndSegmentBoundaries() {
+        assertTrue(format("com.example.chatty.important.Billing", Level.DEBUG, null).has("mdc"),
+                "Longer prefix should override the shorter one");
+        assertTrue(format("com.example.chattybox.Poller", Level.DEBUG, null).has("mdc"),
+                "Prefix should only match whole logger name segments");
+        JSONObject unmatched = format("com.example.Service", Level.INFO, null);
+        assertTrue(unmatched.has("mdc") && unmatched.has("thread_name"), "Unmatched events should have every field");
+        assertFalse(unmatched.has("file"), "Unmatched events should follow LocationInfo");
+    }
+
+    @Test
+    public void testInvalidProfilesAreIgnored() {
+        layout.setProfiles("lean=message,no_such_field");
+
+        JSONObject jsonObject = format("com.example.chatty.Poller", Level.DEBUG, null);
+        assertTrue(jsonObject.has("mdc"), "Invalid profiles should disable profile selection");
+        layout.setProfiles(null);
+        assertNull(layout.getProfiles());
+    }
+
+    private JSONObject format(String loggerName, Level level, Throwable throwable) {
+        String message = throwable != null ? "failed" : "polled";
+        return TestEvents.format(layout, newEvent(Logger.getLogger(loggerName), level, message, throwable));
+    }
+}
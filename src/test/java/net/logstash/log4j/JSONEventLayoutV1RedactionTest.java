@@ -0,0 +1,118 @@
+package net.logstash.log4j;
+
+import static net.logstash.log4j.TestEvents.bytes;
+import static net.logstash.log4j.TestEvents.format;
+import static net.logstash.log4j.TestEvents.newEvent;
+import static net.logstash.log4j.TestEvents.repeat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.spi.LoggingEvent;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class JSONEventLayoutV1RedactionTest {
+    static final Logger logger = Logger.getLogger(JSONEventLayoutV1RedactionTest.class);
+
+    @AfterEach
+    public void clearMDC() {
+        MDC.remove("password");
+        MDC.remove("customer");
+    }
+
+    @Test
+    public void testCardNumbersAreMasked() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setRedactPatterns("card");
+        JSONObject jsonObject = format(layout, newEvent(logger, "paid with 4111 1111 1111 1111, order 1234567890123 and ref 4111-1111-1111-1111"));
+
+        assertEquals("paid with ****, order 1234567890123 and ref ****", jsonObject.get("message"), "Card numbers were not masked");
+    }
+
+    @Test
+    public void testOnlyStandaloneCardNumbersOfKnownIssuersAreMasked() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setRedactPatterns("card");
+        JSONObject jsonObject = format(layout, newEvent(logger, "amex 378282246310005 and mc 5555555555554444. "
+                + "ts 1700000000000000004, id 10000000000000009, txn_4111111111111111, 4111111111111111abc, 4111111111111111.25"));
+
+        assertEquals("amex **** and mc ****. "
+                + "ts 1700000000000000004, id 10000000000000009, txn_4111111111111111, 4111111111111111abc, 4111111111111111.25",
+                jsonObject.get("message"), "Only card numbers should be masked");
+    }
+
+    @Test
+    public void testCardNumbersNextToNonAsciiLettersAreMasked() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setRedactPatterns("card");
+
+        assertEquals("カード番号****です", format(layout, newEvent(logger, "カード番号4111111111111111です")).get("message"), "Card number next to CJK text was not masked");
+        assertEquals("Kartennr.ä****", format(layout, newEvent(logger, "Kartennr.ä4111111111111111")).get("message"), "Card number next to an accented letter was not masked");
+    }
+
+    @Test
+    public void testEmailsAreMasked() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setRedactPatterns("email");
+        JSONObject jsonObject = format(layout, newEvent(logger, "mail to jane.doe+shop@example.co.uk. Reply @ once, not to foo@bar"));
+
+        assertEquals("mail to ****. Reply @ once, not to foo@bar", jsonObject.get("message"), "Emails were not masked");
+    }
+
+    @Test
+    public void testLiteralsAndRegexAreMasked() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setRedactLiterals("hunter2,s3cr3t");
+        layout.setRedactRegex("Bearer [A-Za-z0-9._-]+");
+        layout.setRedactMask("[redacted]");
+        JSONObject jsonObject = format(layout, newEvent(logger, "login hunter2 with \"Bearer abc.def-123\" then s3cr3ts3cr3t"));
+
+        assertEquals("login [redacted] with \"[redacted]\" then [redacted]", jsonObject.get("message"), "Literals or regex matches were not masked");
+    }
+
+    @Test
+    public void testMDCAndExceptionAreMasked() {
+        MDC.put("password", "hunter2");
+        MDC.put("customer", "jane@example.com");
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setRedactPatterns("email");
+        layout.setRedactMdcKeys("PASSWORD");
+        LoggingEvent event = newEvent(logger, Level.ERROR, "failed", new IllegalStateException("no account for jane@example.com"));
+        JSONObject jsonObject = format(layout, event);
+        JSONObject exception = jsonObject.getJSONObject("exception");
+
+        assertEquals("****", jsonObject.getJSONObject("mdc").get("password"), "MDC key was not masked");
+        assertEquals("****", jsonObject.getJSONObject("mdc").get("customer"), "MDC value was not masked");
+        assertEquals("no account for ****", exception.get("exception_message"), "Exception message was not masked");
+        assertFalse(exception.getString("stacktrace").contains("jane@example.com"), "Stacktrace was not masked");
+    }
+
+    @Test
+    public void testRedactionRespectsEventBudget() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setRedactLiterals("pw");
+        layout.setRedactMask("<<<<<<<<masked>>>>>>>>");
+        layout.setMaxEventBytes(600);
+        String formatted = layout.format(newEvent(logger, repeat("pw ", 100)));
+        JSONObject jsonObject = new JSONObject(formatted);
+
+        assertTrue(bytes(formatted) <= 600, "Event exceeds budget");
+        assertFalse(jsonObject.getString("message").contains("pw"), "Literal leaked through truncation");
+        assertTrue(jsonObject.getString("message").startsWith("<<<<<<<<masked>>>>>>>> "), "Mask was not applied");
+    }
+
+    @Test
+    public void testNonSensitiveFieldsAreUntouched() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setRedactLiterals("JSONEventLayoutV1RedactionTest");
+        JSONObject jsonObject = format(layout, newEvent(logger, "nothing to hide"));
+
+        assertEquals(logger.getName(), jsonObject.get("logger_name"), "Logger name should not be redacted");
+        assertEquals("nothing to hide", jsonObject.get("message"), "Message should be unchanged");
+    }
+}
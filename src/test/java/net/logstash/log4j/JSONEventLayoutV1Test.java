@@ -8,6 +8,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.apache.log4j.*;
 
 import java.util.HashMap;
+import net.logstash.log4j.data.HostData;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.jupiter.api.AfterEach;
@@ -270,6 +271,21 @@ public class JSONEventLayoutV1Test {
         layout.setLocationInfo(!locationInfo);
     }
 
+    @Test
+    public void testSourceHostDefaultsToSharedLocalHostName() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        assertEquals(new HostData().getHostName(), layout.getSourceHost(), "Layout does not use the local host name");
+
+        layout.setSourceHost("web-7");
+        assertEquals("web-7", layout.getSourceHost(), "Source host was not overridden");
+        layout.setSourceHost(null);
+        assertEquals(HostData.localHostName(), layout.getSourceHost(), "Source host did not revert to the local host name");
+
+        logger.info("this is an info message");
+        JSONObject jsonObject = new JSONObject(MockAppenderV1.getMessages()[0]);
+        assertEquals(HostData.localHostName(), jsonObject.get("source_host"), "Event does not carry the local host name");
+    }
+
     @Test
     public void testDateFormat() {
         long timestamp = 1364844991207L;
@@ -0,0 +1,87 @@
+package net.logstash.log4j;
+
+import static net.logstash.log4j.TestEvents.newEvent;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.logstash.log4j.data.TraceContext;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class JSONEventLayoutV1TraceContextTest {
+    static final Logger logger = Logger.getLogger(JSONEventLayoutV1TraceContextTest.class);
+
+    @AfterEach
+    public void clearTraceContext() {
+        TraceContext.clear();
+    }
+
+    @Test
+    public void testWideTraceId() {
+        TraceContext.set(0x4bf92f3577b34da6L, 0xa3ce929d0e0e4736L, 0x00f067aa0ba902b7L);
+        JSONObject jsonObject = format();
+
+        assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", jsonObject.get("trace_id"), "Trace ID is wrong");
+        assertEquals("00f067aa0ba902b7", jsonObject.get("span_id"), "Span ID is wrong");
+        assertFalse(jsonObject.getJSONObject("mdc").has("trace_id"), "Trace ID should not be in the MDC");
+    }
+
+    @Test
+    public void testNarrowTraceIdAndHexParsing() {
+        TraceContext.set(-1L, 1L);
+        JSONObject jsonObject = format();
+        assertEquals("ffffffffffffffff", jsonObject.get("trace_id"), "64-bit trace ID is wrong");
+        assertEquals("0000000000000001", jsonObject.get("span_id"), "Span ID is not zero-padded");
+
+        TraceContext.set("0AF7651916CD43DD8448EB211C80319C", "b7ad6b7169203331");
+        jsonObject = format();
+        assertEquals("0af7651916cd43dd8448eb211c80319c", jsonObject.get("trace_id"), "Parsed trace ID is wrong");
+        assertEquals("b7ad6b7169203331", jsonObject.get("span_id"), "Parsed span ID is wrong");
+
+        assertThrows(IllegalArgumentException.class, () -> TraceContext.set("xyz", "b7ad6b7169203331"));
+    }
+
+    @Test
+    public void testNoContextNoFields() {
+        TraceContext.set(1L, 2L);
+        TraceContext.clear();
+        JSONObject jsonObject = format();
+
+        assertFalse(jsonObject.has("trace_id"), "Cleared trace ID was written");
+        assertFalse(jsonObject.has("span_id"), "Cleared span ID was written");
+    }
+
+    @Test
+    public void testBatchDoesNotCarryContextOfCallingThread() {
+        List<LoggingEvent> events = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            events.add(newEvent(logger, "traced " + i));
+        }
+        // the events are logged without a context and formatted on a thread that has one
+        TraceContext.set("0af7651916cd43dd8448eb211c80319c", "b7ad6b7169203331");
+        for (int size : new int[]{10, 5000}) {
+            for (int parallelism : new int[]{0, 4}) {
+                JSONEventLayoutV1 layout = new JSONEventLayoutV1(false);
+                layout.setBatchParallelism(parallelism);
+                String[] lines = layout.formatBatch(events.subList(0, size)).split("\n");
+                assertEquals(size, lines.length, "Wrong number of lines with parallelism " + parallelism);
+                for (String line : lines) {
+                    JSONObject jsonObject = new JSONObject(line);
+                    assertFalse(jsonObject.has("trace_id"), "Trace ID of the calling thread was written in a batch of " + size);
+                    assertFalse(jsonObject.has("span_id"), "Span ID of the calling thread was written in a batch of " + size);
+                }
+                layout.setBatchParallelism(0);
+            }
+        }
+    }
+
+    private static JSONObject format() {
+        return TestEvents.format(new JSONEventLayoutV1(false), newEvent(logger, "traced"));
+    }
+}
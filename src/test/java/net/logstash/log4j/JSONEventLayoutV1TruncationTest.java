@@ -0,0 +1,161 @@
+package net.logstash.log4j;
+
+import static net.logstash.log4j.TestEvents.bytes;
+import static net.logstash.log4j.TestEvents.newEvent;
+import static net.logstash.log4j.TestEvents.repeat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.spi.LoggingEvent;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class JSONEventLayoutV1TruncationTest {
+    static final Logger logger = Logger.getLogger(JSONEventLayoutV1TruncationTest.class);
+
+    @AfterEach
+    public void clearMDC() {
+        MDC.remove("first");
+        MDC.remove("second");
+    }
+
+    @Test
+    public void testSmallEventIsNotTruncated() {
+        JSONEventLayoutV1 layout = newLayout(4096);
+        LoggingEvent event = newEvent(logger, "small message", null);
+        String message = layout.format(event);
+
+        assertFalse(new JSONObject(message).has("truncated"), "Small event was marked as truncated");
+        assertEquals(new JSONEventLayoutV1().format(event), message, "Small event differs from unbounded output");
+    }
+
+    @Test
+    public void testRunawayMessageIsTruncated() {
+        String runaway = repeat("0123456789", 100000);
+        JSONEventLayoutV1 layout = newLayout(1024);
+        String message = layout.format(newEvent(logger, runaway, null));
+        JSONObject jsonObject = new JSONObject(message);
+
+        assertTrue(bytes(message) <= 1024, "Event exceeds budget: " + bytes(message));
+        assertEquals(true, jsonObject.get("truncated"), "Event is not marked as truncated");
+        assertTrue(jsonObject.getInt("original_size") > runaway.length(), "Original size is wrong");
+        assertTrue(runaway.startsWith(jsonObject.getString("message")), "Message is not a prefix of the original");
+        assertTrue(jsonObject.getString("message").length() > 500, "Message was cut more than needed");
+        assertTrue(jsonObject.has("@timestamp"), "Timestamp is missing");
+        assertEquals("INFO", jsonObject.get("level"), "Level is missing");
+        assertEquals(logger.getName(), jsonObject.get("logger_name"), "Logger name is missing");
+    }
+
+    @Test
+    public void testOriginalSizeMatchesUnboundedOutput() {
+        LoggingEvent event = newEvent(logger, repeat("é\"😀", 500), new IllegalStateException("boom"));
+        int unboundedSize = bytes(new JSONEventLayoutV1().format(event));
+        JSONObject jsonObject = new JSONObject(newLayout(512).format(event));
+
+        assertEquals(unboundedSize, jsonObject.getInt("original_size"), "Original size is wrong");
+    }
+
+    @Test
+    public void testTruncationNeverSplitsEscapesOrSurrogates() {
+        String original = repeat("aé\"\\😀\n€</", 200);
+        LoggingEvent event = newEvent(logger, original, null);
+        for (int budget = 350; budget < 700; budget++) {
+            String message = newLayout(budget).format(event);
+            assertTrue(bytes(message) <= budget, "Event exceeds budget " + budget + ": " + bytes(message));
+            String truncated = new JSONObject(message).getString("message");
+            assertTrue(original.startsWith(truncated), "Message is not a prefix of the original for budget " + budget);
+            assertFalse(Character.isHighSurrogate(truncated.charAt(truncated.length() - 1)), "Surrogate pair was split for budget " + budget);
+        }
+    }
+
+    @Test
+    public void testFieldsAreTruncatedInConfiguredOrder() {
+        String text = repeat("x", 300);
+        IllegalStateException exception = new IllegalStateException("boom");
+        exception.setStackTrace(new StackTraceElement[]{
+                new StackTraceElement("com.example.Checkout", "pay", "Checkout.java", 42),
+                new StackTraceElement("com.example.Api", "handle", "Api.java", 7)});
+        LoggingEvent event = newEvent(logger, text, exception);
+        JSONEventLayoutV1 layout = newLayout(700);
+
+        layout.setTruncationOrder("stacktrace,message");
+        JSONObject jsonObject = new JSONObject(layout.format(event));
+        assertEquals(text, jsonObject.get("message"), "Message should survive while the stacktrace is truncated");
+        assertTrue(jsonObject.getJSONObject("exception").has("exception_class"), "Exception class is missing");
+
+        layout.setTruncationOrder("message,stacktrace");
+        jsonObject = new JSONObject(layout.format(event));
+        assertTrue(jsonObject.optString("message").length() < text.length(), "Message should be truncated before the stacktrace");
+        assertEquals(String.join("\n", event.getThrowableStrRep()), jsonObject.getJSONObject("exception").get("stacktrace"), "Stacktrace should be intact");
+    }
+
+    @Test
+    public void testMDCIsTruncatedByEntry() {
+        MDC.put("first", repeat("1", 100));
+        MDC.put("second", repeat("2", 2000));
+        JSONEventLayoutV1 layout = newLayout(1024);
+        layout.setTruncationOrder("mdc");
+        JSONObject jsonObject = new JSONObject(layout.format(newEvent(logger, "hello", null)));
+        JSONObject mdc = jsonObject.getJSONObject("mdc");
+
+        assertEquals(true, jsonObject.get("truncated"), "Event is not marked as truncated");
+        assertFalse(mdc.has("second"), "Oversized MDC entry was kept");
+        assertEquals("hello", jsonObject.get("message"), "Message should not be truncated");
+    }
+
+    @Test
+    public void testLimitHoldsWhenFieldsThatAreNeverTruncatedDoNotFit() {
+        JSONEventLayoutV1 layout = newLayout(300);
+        layout.setUserFields("team:" + repeat("t", 1000));
+        LoggingEvent event = newEvent(logger, "hello", null);
+        String message = layout.format(event);
+        JSONObject jsonObject = new JSONObject(message);
+
+        assertTrue(bytes(message) <= 300, "Event exceeds budget: " + bytes(message));
+        assertEquals(true, jsonObject.get("truncated"), "Event is not marked as truncated");
+        assertTrue(jsonObject.getInt("original_size") > 1000, "Original size is wrong");
+        assertTrue(jsonObject.has("@timestamp"), "Timestamp is missing");
+        assertEquals("INFO", jsonObject.get("level"), "Level is missing");
+        assertFalse(jsonObject.has("team"), "Oversized user field was kept");
+        assertFalse(jsonObject.has("thread_name"), "Thread name was kept over the message");
+        assertEquals(logger.getName(), jsonObject.get("logger_name"), "Logger name is missing");
+        assertEquals("hello", jsonObject.get("message"), "Message did not get the room the user field freed");
+    }
+
+    @Test
+    public void testMinimalEventKeepsLoggerNameCutToFit() {
+        Logger chatty = Logger.getLogger(repeat("com.example.", 50));
+        for (int maxEventBytes : new int[]{JSONEventLayoutV1.MIN_EVENT_BYTES, 300}) {
+            String message = newLayout(maxEventBytes).format(newEvent(chatty, Level.INFO, "hello", null));
+            JSONObject jsonObject = new JSONObject(message);
+
+            assertTrue(bytes(message) <= maxEventBytes, "Event exceeds budget: " + bytes(message));
+            assertEquals(true, jsonObject.get("truncated"), "Event is not marked as truncated");
+            assertTrue(chatty.getName().startsWith(jsonObject.getString("logger_name")), "Logger name is not a prefix of the original");
+            assertFalse(jsonObject.getString("logger_name").isEmpty(), "Logger name was cut to nothing with a budget of " + maxEventBytes);
+            assertEquals("INFO", jsonObject.get("level"), "Level is missing");
+        }
+    }
+
+    @Test
+    public void testLimitBelowMinimumIsIgnored() {
+        JSONEventLayoutV1 layout = newLayout(4096);
+        layout.setMaxEventBytes(JSONEventLayoutV1.MIN_EVENT_BYTES - 1);
+        assertEquals(4096, layout.getMaxEventBytes(), "Limit below the minimum was accepted");
+
+        layout.setMaxEventBytes(JSONEventLayoutV1.MIN_EVENT_BYTES);
+        String message = layout.format(newEvent(Logger.getLogger(repeat("com.example.", 50)), Level.INFO, "hello", null));
+        assertTrue(bytes(message) <= JSONEventLayoutV1.MIN_EVENT_BYTES, "Event exceeds the minimum budget: " + bytes(message));
+    }
+
+    private static JSONEventLayoutV1 newLayout(int maxEventBytes) {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setMaxEventBytes(maxEventBytes);
+        return layout;
+    }
+}
@@ -0,0 +1,47 @@
+package net.logstash.log4j;
+
+import java.nio.charset.StandardCharsets;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.json.JSONObject;
+
+/**
+ * Events and helpers shared by the layout tests.
+ */
+final class TestEvents {
+
+    private TestEvents() {
+    }
+
+    static LoggingEvent newEvent(Logger logger, String message) {
+        return newEvent(logger, Level.INFO, message, null);
+    }
+
+    static LoggingEvent newEvent(Logger logger, String message, Throwable throwable) {
+        return newEvent(logger, Level.INFO, message, throwable);
+    }
+
+    static LoggingEvent newEvent(Logger logger, Level level, String message, Throwable throwable) {
+        return new LoggingEvent(Logger.class.getName(), logger, level, message, throwable);
+    }
+
+    /**
+     * @return the event formatted by {@code layout}, parsed back.
+     */
+    static JSONObject format(JSONEventLayoutV1 layout, LoggingEvent event) {
+        return new JSONObject(layout.format(event));
+    }
+
+    static int bytes(String formatted) {
+        return formatted.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    static String repeat(String s, int times) {
+        StringBuilder builder = new StringBuilder(s.length() * times);
+        for (int i = 0; i < times; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,149 @@
+package net.logstash.log4j.encoder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class BufferManagerTest {
+
+    @Test
+    public void testBufferShrinksBackAfterSpikeOnSweep() {
+        BufferManager manager = new BufferManager(new BufferPool(1 << 20, 0), Long.MAX_VALUE);
+        format(manager, 0, 200);
+        format(manager, 0, 20000);
+        StringBuilder grown = buffer(manager);
+        assertTrue(grown.capacity() >= 20000, "Spike did not grow the buffer");
+
+        for (int i = 0; i < 2000; i++) {
+            format(manager, 0, 200);
+        }
+        assertSame(grown, buffer(manager), "Buffer was reallocated while formatting");
+
+        manager.sweep();
+        assertTrue(capacity(manager) <= 2 * 200 * 2, "Buffer did not shrink back, capacity " + capacity(manager));
+    }
+
+    @Test
+    public void testMixedSizesKeepTheirBuffer() {
+        BufferManager manager = new BufferManager(new BufferPool(1 << 20, 0), Long.MAX_VALUE);
+        for (int i = 0; i < 2000; i++) {
+            format(manager, 0, i % 50 == 0 ? 20000 : 400 + (i * 37) % 200);
+        }
+        StringBuilder buffer = buffer(manager);
+        for (int i = 0; i < 2000; i++) {
+            format(manager, 0, i % 50 == 0 ? 20000 : 400 + (i * 37) % 200);
+        }
+        assertSame(buffer, buffer(manager), "Buffer was replaced although sizes did not change");
+    }
+
+    @Test
+    public void testUnmanagedBuffersOnlyAllocateWhatIsUsed() {
+        EncodingBuffers encodingBuffers = BufferManager.unmanaged(1000);
+        assertEquals(2 * 1000, encodingBuffers.retainedBytes(), "Buffers other than the writer were allocated up front");
+
+        encodingBuffers.sizes();
+        encodingBuffers.limits();
+        long truncating = encodingBuffers.retainedBytes();
+        assertTrue(truncating > 2 * 1000, "Truncation arrays are not accounted for");
+
+        encodingBuffers.chunk();
+        encodingBuffers.header();
+        assertTrue(encodingBuffers.retainedBytes() >= truncating + 2 * (1024 + 64), "Chunk and header are not accounted for");
+    }
+
+    @Test
+    public void testLargeEventsBorrowFromPool() {
+        BufferPool pool = new BufferPool(1 << 20, 0);
+        BufferManager manager = new BufferManager(pool, Long.MAX_VALUE);
+        format(manager, 0, 100);
+        StringBuilder own = buffer(manager);
+
+        format(manager, 60000, 60000);
+        assertSame(own, buffer(manager), "Thread kept the large buffer");
+        assertTrue(pool.retainedBytes() >= 2 * 60000, "Large buffer was not returned to the pool");
+
+        format(manager, 60000, 60000);
+        assertTrue(pool.retainedBytes() >= 2 * 60000, "Pooled buffer was not reused");
+        assertTrue(manager.getRetainedBytes() < 2 * BufferManager.LARGE_EVENT_CHARS, "Thread retains " + manager.getRetainedBytes());
+    }
+
+    @Test
+    public void testPoolIsBoundedAndDrainedWhenIdle() {
+        BufferPool pool = new BufferPool(50000, 0);
+        pool.offer(new StringBuilder(40000));
+        pool.offer(new StringBuilder(40000));
+        assertEquals(2 * 40000, pool.retainedBytes(), "Pool exceeded its bound");
+
+        pool.sweep(System.nanoTime());
+        assertEquals(0, pool.retainedBytes(), "Idle pool was not drained");
+    }
+
+    @Test
+    public void testReentrantAcquireGetsUnmanagedBuffers() {
+        BufferManager manager = new BufferManager(new BufferPool(1 << 20, 0), Long.MAX_VALUE);
+        EncodingBuffers outer = manager.acquire(0);
+        EncodingBuffers inner = manager.acquire(0);
+        assertNotSame(outer, inner, "Buffers in use were handed out again");
+        manager.release(inner);
+        manager.release(outer);
+        assertSame(outer, manager.acquire(0), "Thread lost its buffers");
+    }
+
+    @Test
+    public void testSweepReleasesIdleAndDeadThreads() throws InterruptedException {
+        BufferManager manager = new BufferManager(new BufferPool(1 << 20, 0), Long.MAX_VALUE);
+        Thread worker = new Thread(() -> format(manager, 0, 20000));
+        worker.start();
+        worker.join();
+        for (int i = 0; i < 200; i++) {
+            format(manager, 0, 2000);
+        }
+        assertEquals(2, manager.getThreads(), "Expected buffers for two threads");
+
+        manager.sweep();
+        assertEquals(1, manager.getThreads(), "Buffers of the dead thread were kept");
+        long busy = manager.getRetainedBytes();
+
+        manager.sweep();
+        assertTrue(manager.getRetainedBytes() < busy, "Buffers of the idle thread were not trimmed");
+        assertEquals(BufferManager.MIN_CAPACITY, capacity(manager), "Idle buffer was not trimmed to the minimum");
+    }
+
+    @Test
+    public void testBuffersOfDeadThreadsAreCollectedWithoutSweep() throws InterruptedException {
+        BufferManager manager = new BufferManager(new BufferPool(1 << 20, 0), Long.MAX_VALUE);
+        Thread worker = new Thread(() -> format(manager, 0, 20000));
+        worker.start();
+        worker.join();
+        worker = null;
+        assertEquals(1, manager.getThreads(), "Expected buffers for the worker");
+
+        for (int i = 0; i < 50 && manager.getThreads() > 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(0, manager.getThreads(), "Buffers of the dead thread are still reachable");
+    }
+
+    private static void format(BufferManager manager, int estimate, int length) {
+        EncodingBuffers encodingBuffers = manager.acquire(estimate);
+        StringBuilder buffer = encodingBuffers.writer().getBuffer();
+        for (int i = 0; i < length; i++) {
+            buffer.append('x');
+        }
+        manager.release(encodingBuffers);
+    }
+
+    private static StringBuilder buffer(BufferManager manager) {
+        EncodingBuffers encodingBuffers = manager.acquire(0);
+        manager.release(encodingBuffers);
+        return encodingBuffers.writer().getBuffer();
+    }
+
+    private static int capacity(BufferManager manager) {
+        return buffer(manager).capacity();
+    }
+}
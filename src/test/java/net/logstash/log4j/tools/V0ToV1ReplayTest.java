@@ -0,0 +1,81 @@
+package net.logstash.log4j.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import net.logstash.log4j.JSONEventLayoutV0;
+import net.logstash.log4j.JSONEventLayoutV1;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.NDC;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class V0ToV1ReplayTest {
+    static final Logger logger = Logger.getLogger(V0ToV1ReplayTest.class);
+
+    @AfterEach
+    public void clearContext() {
+        MDC.remove("request_id");
+        NDC.clear();
+    }
+
+    @Test
+    public void testReplayMatchesV1Layout() throws IOException {
+        JSONEventLayoutV0 v0 = new JSONEventLayoutV0();
+        JSONEventLayoutV0 v0WithoutLocation = new JSONEventLayoutV0(false);
+        JSONEventLayoutV1 v1 = new JSONEventLayoutV1();
+        JSONEventLayoutV1 v1WithoutLocation = new JSONEventLayoutV1(false);
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            boolean withLocation = i % 3 != 0;
+            if (i % 2 == 0) {
+                MDC.put("request_id", "r" + i);
+            }
+            if (i % 5 == 0) {
+                NDC.push("ndc" + i);
+            }
+            Throwable throwable = i % 7 == 0 ? new IllegalStateException("failure \"" + i + "\"\nsecond line") : null;
+            LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, Level.toLevel(i % 4 * 10000 + 10000), "message </" + i + "> café", throwable);
+            input.append(withLocation ? v0.format(event) : v0WithoutLocation.format(event));
+            expected.append(withLocation ? v1.format(event) : v1WithoutLocation.format(event));
+            clearContext();
+        }
+        input.append("not json\n\n");
+
+        StringWriter output = new StringWriter();
+        V0ToV1Replay.Result result = new V0ToV1Replay(4, 64)
+                .replay(new BufferedReader(new StringReader(input.toString())), output);
+
+        assertEquals(expected.toString(), output.toString(), "Replayed events differ from the v1 layout");
+        assertEquals(1002, result.getLines(), "Wrong number of lines read");
+        assertEquals(1000, result.getEvents(), "Wrong number of events converted");
+        assertEquals(2, result.getSkipped(), "Invalid lines were not skipped");
+    }
+
+    @Test
+    public void testSourceHostIsPreserved() {
+        StringBuilder output = new StringBuilder();
+        new V0ToV1Replay(1, 1).convert("{\"@source_host\":\"web-7\",\"@message\":\"hi\",\"@timestamp\":\"2013-04-01T19:36:31.207Z\","
+                + "\"@fields\":{\"loggerName\":\"app\",\"level\":\"WARN\",\"threadName\":\"main\",\"mdc\":{}}}", output);
+
+        assertEquals("{\"@version\":1,\"@timestamp\":\"2013-04-01T19:36:31.207Z\",\"source_host\":\"web-7\",\"message\":\"hi\","
+                + "\"logger_name\":\"app\",\"mdc\":{},\"level\":\"WARN\",\"thread_name\":\"main\"}\n", output.toString());
+    }
+
+    @Test
+    public void testMissingThreadNameIsNotTakenFromReplayThread() {
+        StringBuilder output = new StringBuilder();
+        new V0ToV1Replay(1, 1).convert("{\"@source_host\":\"web-7\",\"@message\":\"hi\",\"@timestamp\":\"2013-04-01T19:36:31.207Z\","
+                + "\"@fields\":{\"loggerName\":\"app\",\"level\":\"WARN\",\"mdc\":{}}}", output);
+
+        assertEquals("{\"@version\":1,\"@timestamp\":\"2013-04-01T19:36:31.207Z\",\"source_host\":\"web-7\",\"message\":\"hi\","
+                + "\"logger_name\":\"app\",\"mdc\":{},\"level\":\"WARN\",\"thread_name\":\"\"}\n", output.toString());
+    }
+}